@@ -0,0 +1,346 @@
+package ru.compscicenter.java2017.implementor.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import ru.compscicenter.java2017.implementor.*;
+
+import java.io.*;
+import java.lang.reflect.Modifier;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Generates implementations of the listed types and of the interfaces and abstract classes found
+ * in the scanned packages, then adds the output directory as a compile source root.
+ *
+ * Classes of {@code classesDirectory} are loaded together with the compile class path of the
+ * project, so their supertypes and signature types may come from dependencies, including other
+ * modules of the reactor.
+ *
+ * Generation is skipped when the configuration, the generator, every class file in
+ * {@code classesDirectory} and the compile class path are the same as on the previous successful
+ * run, so a no-op build costs a directory walk and a hash. All class files are hashed, not only
+ * the implemented ones, because a change of a supertype changes the abstract methods of its
+ * implementations.
+ */
+@Mojo(name = "generate-sources", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true,
+        requiresDependencyResolution = ResolutionScope.COMPILE)
+public class GenerateSourcesMojo extends AbstractMojo {
+
+    private static final String IMPLEMENTOR_ARTIFACT = "compscicenter-java2017:implementor";
+
+    public enum Mode {
+        STUB, DELEGATE, MEMOIZING, NULL_OBJECT
+    }
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true, required = true)
+    private PluginDescriptor plugin;
+
+    /**
+     * Fully qualified names of the types to implement.
+     */
+    @Parameter
+    private List<String> types = new ArrayList<>();
+
+    /**
+     * Packages (with subpackages) of {@code classesDirectory} in which every interface and
+     * abstract class is implemented.
+     */
+    @Parameter
+    private List<String> packages = new ArrayList<>();
+
+    /**
+     * Directory with the compiled types, which may depend on the compile class path of the project.
+     * If it isn't set, the types are taken from the standard library and implemented in the default
+     * package.
+     */
+    @Parameter
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/implementor", required = true)
+    private File outputDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/implementor.fingerprint", required = true)
+    private File fingerprintFile;
+
+    @Parameter(defaultValue = "STUB")
+    private Mode mode;
+
+    /**
+     * Names of the methods to memoize in the {@code MEMOIZING} mode, required in that mode.
+     */
+    @Parameter
+    private List<String> memoizedMethods = new ArrayList<>();
+
+    /**
+     * Maximum number of cached results per memoized method.
+     */
+    @Parameter(defaultValue = "" + CSCMemoizingWriter.DEFAULT_CAPACITY)
+    private int cacheCapacity;
+
+    /**
+     * Number of generator threads, the number of available processors by default.
+     */
+    @Parameter(defaultValue = "0")
+    private int threads;
+
+    @Parameter(defaultValue = "false", property = "implementor.skip")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping implementor");
+            return;
+        }
+        if (!packages.isEmpty() && classesDirectory == null) {
+            throw new MojoExecutionException("classesDirectory is required to scan packages");
+        }
+        if (mode == Mode.MEMOIZING && (memoizedMethods.isEmpty() || cacheCapacity <= 0)) {
+            throw new MojoExecutionException("MEMOIZING mode requires memoizedMethods and a positive cacheCapacity");
+        }
+
+        List<File> classPath = getClassPath();
+        try (URLClassLoader classLoader = newClassLoader(classPath)) {
+            List<String> classNames = new ArrayList<>(types);
+            classNames.addAll(scanPackages(classLoader));
+
+            String fingerprint = computeFingerprint(classNames, classPath);
+            if (outputDirectory.isDirectory() && fingerprint.equals(readFingerprint())) {
+                getLog().info("Implementations are up to date");
+            } else {
+                deleteContent(outputDirectory.toPath());
+                generate(classNames, classLoader);
+                writeFingerprint(fingerprint);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can't generate implementations", e);
+        }
+
+        project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Returns {@code classesDirectory} followed by the compile class path of the project,
+     * or an empty list for the standard library.
+     */
+    private List<File> getClassPath() throws MojoExecutionException {
+        List<File> classPath = new ArrayList<>();
+        if (classesDirectory == null) {
+            return classPath;
+        }
+        classPath.add(classesDirectory.getAbsoluteFile());
+        // The project's own output holds the previously compiled implementations, and it changes
+        // with every compilation, which would defeat the fingerprint
+        File projectOutput = new File(project.getBuild().getOutputDirectory()).getAbsoluteFile();
+        try {
+            for (String element : project.getCompileClasspathElements()) {
+                File file = new File(element).getAbsoluteFile();
+                if (!classPath.contains(file) && !file.equals(projectOutput)) {
+                    classPath.add(file);
+                }
+            }
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Dependencies aren't resolved", e);
+        }
+        return classPath;
+    }
+
+    private static URLClassLoader newClassLoader(List<File> classPath) throws MalformedURLException {
+        URL[] urls = new URL[classPath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = classPath.get(i).toURI().toURL();
+        }
+        return new URLClassLoader(urls);
+    }
+
+    private void generate(List<String> classNames, ClassLoader classLoader) throws MojoExecutionException {
+        CSCImplementor implementor = new CSCImplementor(outputDirectory.getAbsolutePath(), getWriterFactory());
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(1, classNames.size())));
+
+        Map<String, Future<String>> results = new LinkedHashMap<>();
+        for (String className : classNames) {
+            results.put(className, executor.submit(() -> classesDirectory == null
+                    ? implementor.implementFromStandardLibrary(className)
+                    : implementor.implementFromClassLoader(classLoader, className)));
+        }
+        executor.shutdown();
+
+        int failures = 0;
+        for (Map.Entry<String, Future<String>> result : results.entrySet()) {
+            try {
+                getLog().debug("Generated " + result.getValue().get());
+            } catch (ExecutionException e) {
+                failures++;
+                getLog().error("Can't implement " + result.getKey() + ": " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted", e);
+            }
+        }
+        if (failures > 0) {
+            throw new MojoExecutionException(failures + " of " + classNames.size() + " types can't be implemented");
+        }
+        getLog().info("Generated " + classNames.size() + " implementations in " + outputDirectory);
+    }
+
+    private ImplWriterFactory getWriterFactory() {
+        switch (mode) {
+            case DELEGATE:
+                return CSCDelegateWriter::new;
+            case MEMOIZING:
+                Set<String> methodNames = new HashSet<>(memoizedMethods);
+                return writer -> new CSCMemoizingWriter(writer, methodNames, cacheCapacity);
+            case NULL_OBJECT:
+                return CSCNullObjectWriter::new;
+            default:
+                return CSCImplWriter::new;
+        }
+    }
+
+    private List<String> scanPackages(ClassLoader classLoader) throws IOException, MojoExecutionException {
+        List<String> classNames = new ArrayList<>();
+        if (packages.isEmpty()) {
+            return classNames;
+        }
+
+        Path root = classesDirectory.toPath();
+        for (String pkg : packages) {
+            Path packageDir = root.resolve(pkg.replace('.', '/'));
+            if (!Files.isDirectory(packageDir)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(packageDir)) {
+                files.map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+                        .filter(path -> path.endsWith(".class") && !path.contains("$"))
+                        .map(path -> path.substring(0, path.length() - ".class".length()).replace('/', '.'))
+                        .sorted()
+                        .forEach(classNames::add);
+            }
+        }
+
+        List<String> implementable = new ArrayList<>();
+        for (String className : classNames) {
+            Class cls;
+            try {
+                cls = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new MojoExecutionException("Can't load " + className, e);
+            }
+            if (Modifier.isAbstract(cls.getModifiers()) && !cls.isAnnotation()) {
+                implementable.add(className);
+            }
+        }
+        return implementable;
+    }
+
+    private String computeFingerprint(List<String> classNames, List<File> classPath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder inputs = new StringBuilder();
+        inputs.append(plugin.getVersion()).append('\n');
+        Artifact implementor = plugin.getArtifactMap().get(IMPLEMENTOR_ARTIFACT);
+        if (implementor != null) {
+            // Snapshots keep their version, but the file is replaced on every install
+            File file = implementor.getFile();
+            inputs.append(implementor.getVersion());
+            if (file != null) {
+                inputs.append(' ').append(file.length()).append(' ').append(file.lastModified());
+            }
+            inputs.append('\n');
+        }
+        inputs.append(mode).append('\n');
+        if (mode == Mode.MEMOIZING) {
+            inputs.append(new TreeSet<>(memoizedMethods)).append(' ').append(cacheCapacity).append('\n');
+        }
+        inputs.append(outputDirectory.getAbsolutePath()).append('\n');
+        if (classesDirectory == null) {
+            inputs.append(System.getProperty("java.version")).append('\n');
+        }
+        for (String className : classNames) {
+            inputs.append(className).append('\n');
+        }
+        digest.update(inputs.toString().getBytes(StandardCharsets.UTF_8));
+
+        // Directories, such as classesDirectory and the output of other reactor modules, are hashed
+        // by content; jars are replaced as a whole, so their size and mtime are enough
+        for (File element : classPath) {
+            digest.update(element.getPath().getBytes(StandardCharsets.UTF_8));
+            if (element.isDirectory()) {
+                hashClassFiles(digest, element.toPath());
+            } else {
+                String stamp = " " + element.length() + " " + element.lastModified() + "\n";
+                digest.update(stamp.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void hashClassFiles(MessageDigest digest, Path root) throws IOException {
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(root)) {
+            classFiles = files.filter(path -> path.toString().endsWith(".class"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path classFile : classFiles) {
+            digest.update(root.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(classFile));
+        }
+    }
+
+    private String readFingerprint() throws IOException {
+        if (!fingerprintFile.isFile()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(fingerprintFile.toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    private void writeFingerprint(String fingerprint) throws IOException {
+        fingerprintFile.getParentFile().mkdirs();
+        Files.write(fingerprintFile.toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Removes implementations of types that are no longer configured
+    private static void deleteContent(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : paths) {
+                if (!path.equals(directory)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ru.compscicenter.java2017.implementor.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class GenerateSourcesMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sourceDirectory;
+    private File classesDirectory;
+    private File dependencyDirectory;
+    private File outputDirectory;
+    private MavenProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDirectory = folder.newFolder("src");
+        classesDirectory = folder.newFolder("classes");
+        dependencyDirectory = folder.newFolder("dependency");
+        outputDirectory = new File(folder.getRoot(), "generated");
+        project = new MavenProject();
+        project.getBuild().setOutputDirectory(folder.newFolder("target-classes").getAbsolutePath());
+
+        // Resolved like the output of another reactor module
+        DefaultArtifactHandler handler = new DefaultArtifactHandler("jar");
+        handler.setAddedToClasspath(true);
+        Artifact dependency = new DefaultArtifact("test", "api", "1.0", Artifact.SCOPE_COMPILE, "jar", null, handler);
+        dependency.setFile(dependencyDirectory);
+        project.setArtifacts(Collections.singleton(dependency));
+    }
+
+    @Test
+    public void generatesOnceAndSkipsUnchangedInputs() throws Exception {
+        compile(classesDirectory, "services", "Service", "public interface Service {", "    String name();", "}");
+        compile(classesDirectory, "services", "BaseService",
+                "public abstract class BaseService implements Service {", "}");
+
+        newMojo().execute();
+        File serviceImpl = new File(outputDirectory, "services/ServiceImpl.java");
+        File baseServiceImpl = new File(outputDirectory, "services/BaseServiceImpl.java");
+        assertThat(serviceImpl.isFile()).isTrue();
+        assertThat(baseServiceImpl.isFile()).isTrue();
+        assertThat(project.getCompileSourceRoots()).contains(outputDirectory.getAbsolutePath());
+
+        // A no-op run keeps the output directory as it is
+        File marker = new File(outputDirectory, "marker");
+        assertThat(marker.createNewFile()).isTrue();
+        newMojo().execute();
+        assertThat(marker.exists()).isTrue();
+
+        // A new abstract method in the supertype regenerates the subtype implementation
+        compile(classesDirectory, "services", "Service",
+                "public interface Service {", "    String name();", "    int size();", "}");
+        newMojo().execute();
+        assertThat(marker.exists()).isFalse();
+        assertThat(read(baseServiceImpl)).contains("public int size()");
+    }
+
+    @Test
+    public void loadsSupertypesFromDependencies() throws Exception {
+        compile(dependencyDirectory, "api", "Named", "public interface Named {", "    String name();", "}");
+        compile(classesDirectory, "services", "NamedService",
+                "public abstract class NamedService implements api.Named {", "}");
+
+        newMojo().execute();
+        File namedServiceImpl = new File(outputDirectory, "services/NamedServiceImpl.java");
+        assertThat(read(namedServiceImpl)).contains("public java.lang.String name()");
+
+        // A changed dependency regenerates the implementations
+        compile(dependencyDirectory, "api", "Named", "public interface Named {", "    String name();",
+                "    long id();", "}");
+        newMojo().execute();
+        assertThat(read(namedServiceImpl)).contains("public long id()");
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void compile(File classes, String packageName, String className, String... body) throws IOException {
+        File source = new File(sourceDirectory, packageName + "/" + className + ".java");
+        source.getParentFile().mkdirs();
+        Files.write(source.toPath(), Collections.singletonList("package " + packageName + ";"),
+                StandardCharsets.UTF_8);
+        Files.write(source.toPath(), Arrays.asList(body), StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String classPath = classesDirectory.getAbsolutePath() + File.pathSeparator
+                + dependencyDirectory.getAbsolutePath();
+        int result = compiler.run(null, null, null, "-proc:none", "-implicit:none", "-classpath", classPath,
+                "-sourcepath", sourceDirectory.getAbsolutePath(),
+                "-d", classes.getAbsolutePath(), source.getAbsolutePath());
+        assertThat(result).isEqualTo(0);
+    }
+
+    private GenerateSourcesMojo newMojo() throws Exception {
+        PluginDescriptor plugin = new PluginDescriptor();
+        plugin.setVersion("test");
+        plugin.setArtifacts(Collections.emptyList());
+
+        GenerateSourcesMojo mojo = new GenerateSourcesMojo();
+        set(mojo, "project", project);
+        set(mojo, "plugin", plugin);
+        set(mojo, "packages", Collections.singletonList("services"));
+        set(mojo, "classesDirectory", classesDirectory);
+        set(mojo, "outputDirectory", outputDirectory);
+        set(mojo, "fingerprintFile", new File(folder.getRoot(), "implementor.fingerprint"));
+        set(mojo, "mode", GenerateSourcesMojo.Mode.STUB);
+        set(mojo, "threads", 2);
+        return mojo;
+    }
+
+    // Sets a parameter the way Maven does, without a setter
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
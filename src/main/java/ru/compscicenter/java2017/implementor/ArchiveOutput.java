@@ -0,0 +1,90 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Streams all generated sources into one zip or jar archive, with the same package layout as
+ * {@link DirectoryOutput}. A whole batch costs a handful of file system operations instead of
+ * several per source, and javac can read the sources from the archive directly.
+ *
+ * Sources are encoded in UTF-8. Each source is buffered in memory until its writer is closed and
+ * then appended to the archive; the archive is complete only after {@link #close()}.
+ * Writers may be used from several threads.
+ *
+ * Unlike {@link DirectoryOutput}, which overwrites an existing file, an archive can't replace an
+ * entry, so opening a path for the second time fails with {@link FileAlreadyExistsException}.
+ * {@link CSCImplementor} reports it as an {@link ImplementorException}.
+ */
+public class ArchiveOutput implements SourceOutput, Closeable {
+
+    private final ZipOutputStream zip;
+    private final boolean compressed;
+    private final Set<String> paths = Collections.synchronizedSet(new HashSet<>());
+
+    public ArchiveOutput(String archivePath) throws IOException {
+        this(archivePath, true);
+    }
+
+    /**
+     * @param compressed {@code false} to store the sources without compression
+     */
+    public ArchiveOutput(String archivePath, boolean compressed) throws IOException {
+        File archiveFile = new File(archivePath);
+        File parent = archiveFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile)));
+        this.compressed = compressed;
+    }
+
+    @Override
+    public Writer openSource(String path) throws IOException {
+        if (!paths.add(path)) {
+            throw new FileAlreadyExistsException(path, null, "Already in the archive");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return new OutputStreamWriter(buffer, StandardCharsets.UTF_8) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    super.close();
+                    addEntry(path, buffer.toByteArray());
+                }
+            }
+        };
+    }
+
+    private void addEntry(String path, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        if (!compressed) {
+            // Stored entries must know their size and checksum before the data is written
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+
+        synchronized (zip) {
+            zip.putNextEntry(entry);
+            zip.write(content);
+            zip.closeEntry();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (zip) {
+            zip.close();
+        }
+    }
+}
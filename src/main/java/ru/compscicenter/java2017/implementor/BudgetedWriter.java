@@ -0,0 +1,53 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+
+/**
+ * Charges everything written to the byte limit of a {@link RequestBudget},
+ * by the length of its UTF-8 encoding.
+ */
+class BudgetedWriter extends FilterWriter {
+
+    private final RequestBudget budget;
+
+    BudgetedWriter(Writer out, RequestBudget budget) {
+        super(out);
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        budget.addBytes(encodedLength((char) c));
+        super.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        long bytes = 0;
+        for (int i = off; i < off + len; i++) {
+            bytes += encodedLength(cbuf[i]);
+        }
+        budget.addBytes(bytes);
+        super.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        long bytes = 0;
+        for (int i = off; i < off + len; i++) {
+            bytes += encodedLength(str.charAt(i));
+        }
+        budget.addBytes(bytes);
+        super.write(str, off, len);
+    }
+
+    // Each half of a surrogate pair counts for two of the four bytes of the pair
+    private static int encodedLength(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+}
@@ -0,0 +1,95 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Generates a static forwarding decorator: the class keeps a {@code delegate} of the parent type
+ * and every abstract method calls the same method of the delegate with the same arguments.
+ * Unlike {@link java.lang.reflect.Proxy} this involves no reflection or boxing, so the JIT can
+ * inline straight through the generated class.
+ */
+public class CSCDelegateWriter extends CSCImplWriter {
+
+    public CSCDelegateWriter(Writer writer) {
+        super(writer);
+    }
+
+    public CSCDelegateWriter(Writer writer, Instrumentation instrumentation) {
+        super(writer, instrumentation);
+    }
+
+    @Override
+    protected void writeFields(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+        writeNewline();
+        writeIndent(indentLevel);
+        writer.write(String.format("private final %s delegate;\n", parentClass.getCanonicalName()));
+    }
+
+    @Override
+    protected void writeConstructors(String className, Class parentClass, int indentLevel) throws IOException {
+        writeNewline();
+        writeIndent(indentLevel);
+
+        Constructor superConstructor = findSuperConstructor(parentClass);
+        String throwsClause = superConstructor == null ? "" : getThrowsClause(superConstructor.getExceptionTypes());
+        writer.write(String.format("public %s(%s delegate)%s", className, parentClass.getCanonicalName(),
+                throwsClause));
+        writeOpeningBrace();
+
+        if (superConstructor != null) {
+            writeSuperCall(superConstructor, indentLevel + 1);
+        }
+        writeIndent(indentLevel + 1);
+        writer.write("this.delegate = delegate;\n");
+
+        writeClosingBrace(indentLevel);
+    }
+
+    @Override
+    protected void writeMethodBody(Method method, int index, int indentLevel) throws IOException {
+        if (!canForward(method)) {
+            writeMethodStub(method, indentLevel);
+            return;
+        }
+
+        writeIndent(indentLevel);
+        if (!method.getReturnType().equals(Void.TYPE)) {
+            writer.write("return ");
+        }
+        writer.write(getForwardingCall(method));
+        writer.write(";\n");
+    }
+
+    /**
+     * Returns the call expression {@code this.delegate.name(arg0, arg1, ...)} for the method.
+     */
+    protected static String getForwardingCall(Method method) {
+        StringBuilder call = new StringBuilder("this.delegate.");
+        call.append(method.getName());
+        call.append("(");
+        Parameter[] params = method.getParameters();
+        for (int i = 0; i < params.length; i++) {
+            call.append(params[i].getName());
+            if (i != params.length - 1) {
+                call.append(", ");
+            }
+        }
+        call.append(")");
+        return call.toString();
+    }
+
+    /**
+     * Protected methods can only be called on another instance from inside the declaring package,
+     * elsewhere the generated class falls back to a stub.
+     */
+    protected boolean canForward(Method method) {
+        if (Modifier.isPublic(method.getModifiers())) {
+            return true;
+        }
+        Package declaringPackage = method.getDeclaringClass().getPackage();
+        return pkg != null && declaringPackage != null && pkg.getName().equals(declaringPackage.getName());
+    }
+}
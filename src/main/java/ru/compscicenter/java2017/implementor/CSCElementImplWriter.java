@@ -0,0 +1,232 @@
+package ru.compscicenter.java2017.implementor;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes the same stub as {@link CSCImplWriter}, but from the compiler's model of the parent type
+ * instead of a loaded {@link Class}. As with reflection, generics are erased.
+ */
+public class CSCElementImplWriter {
+
+    private static final int INDENT_WIDTH = 4;
+
+    private Writer writer;
+    private Elements elements;
+    private Types types;
+
+    public CSCElementImplWriter(Writer writer, Elements elements, Types types) {
+        this.writer = writer;
+        this.elements = elements;
+        this.types = types;
+    }
+
+    /**
+     * @param packageName package of the generated class, empty for the default package
+     */
+    public void write(String packageName, String className, TypeElement parentType) throws IOException {
+        if (!packageName.isEmpty()) {
+            writer.write(String.format("package %s;\n", packageName));
+            writeNewline();
+        }
+        writeClass(className, parentType, 0);
+    }
+
+    private void writeClass(String className, TypeElement parentType, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        boolean isInterface = parentType.getKind() == ElementKind.INTERFACE;
+        String keyword = isInterface ? "implements" : "extends";
+        writer.write(String.format("public class %s %s %s", className, keyword, parentType.getQualifiedName()));
+        writeOpeningBrace();
+
+        ExecutableElement superConstructor = isInterface ? null : findSuperConstructor(parentType);
+        if (superConstructor != null) {
+            writeNewline();
+            writeParameterlessConstructor(className, superConstructor, indentLevel + 1);
+        }
+
+        for (ExecutableElement method : getAbstractMethods(parentType)) {
+            ExecutableType methodType = getMemberType(parentType, method);
+            writeNewline();
+
+            writeMethodDeclaration(method, methodType, indentLevel + 1);
+            writeMethodStub(methodType, indentLevel + 2);
+
+            writeClosingBrace(indentLevel + 1);
+        }
+
+        writeClosingBrace(indentLevel);
+    }
+
+    /**
+     * Returns the constructor that the generated constructor has to call explicitly,
+     * or {@code null} if the implicit {@code super()} is enough.
+     */
+    static ExecutableElement findSuperConstructor(TypeElement parentType) {
+        ExecutableElement goodConstructor = null;
+        for (ExecutableElement c : ElementFilter.constructorsIn(parentType.getEnclosedElements())) {
+            if (!c.getModifiers().contains(Modifier.PRIVATE)) {
+                if (c.getParameters().isEmpty()) {
+                    return null;
+                }
+                goodConstructor = c;
+            }
+        }
+        return goodConstructor;
+    }
+
+    private void writeParameterlessConstructor(String className, ExecutableElement goodConstructor,
+                                               int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        writer.write(getAccessModifier(goodConstructor));
+        writer.write(className);
+        writer.write("()");
+        writer.write(getThrowsClause(goodConstructor));
+        writeOpeningBrace();
+
+        writeIndent(indentLevel + 1);
+        writer.write("super(");
+        List<? extends VariableElement> params = goodConstructor.getParameters();
+        for (int i = 0; i < params.size(); i++) {
+            writer.write(CSCImplWriter.getDefaultValue(getTypeName(params.get(i).asType())));
+            if (i != params.size() - 1) {
+                writer.write(", ");
+            }
+        }
+        writer.write(");");
+        writeNewline();
+
+        writeClosingBrace(indentLevel);
+    }
+
+    private void writeMethodDeclaration(ExecutableElement method, ExecutableType methodType, int indentLevel)
+            throws IOException {
+        writeIndent(indentLevel);
+
+        StringBuilder methodDeclaration = new StringBuilder();
+        methodDeclaration.append(getAccessModifier(method));
+        methodDeclaration.append(getTypeName(methodType.getReturnType()));
+        methodDeclaration.append(" ");
+        methodDeclaration.append(method.getSimpleName());
+
+        methodDeclaration.append("(");
+        List<? extends VariableElement> params = method.getParameters();
+        List<? extends TypeMirror> paramTypes = methodType.getParameterTypes();
+        for (int i = 0; i < params.size(); i++) {
+            methodDeclaration.append(getTypeName(paramTypes.get(i)));
+            methodDeclaration.append(" ");
+            methodDeclaration.append(params.get(i).getSimpleName());
+            if (i != params.size() - 1) {
+                methodDeclaration.append(", ");
+            }
+        }
+        methodDeclaration.append(")");
+        methodDeclaration.append(getThrowsClause(method));
+
+        writer.write(methodDeclaration.toString());
+        writeOpeningBrace();
+    }
+
+    private void writeMethodStub(ExecutableType methodType, int indentLevel) throws IOException {
+        if (methodType.getReturnType().getKind() == TypeKind.VOID) {
+            return; // Do nothing
+        }
+
+        writeIndent(indentLevel);
+        writer.write("return " + CSCImplWriter.getDefaultValue(getTypeName(methodType.getReturnType())) + ";");
+        writeNewline();
+    }
+
+    private List<ExecutableElement> getAbstractMethods(TypeElement parentType) {
+        List<ExecutableElement> allMethods = ElementFilter.methodsIn(elements.getAllMembers(parentType));
+        List<ExecutableElement> abstractMethods = new ArrayList<>();
+        Set<List<String>> signatures = new HashSet<>();
+        for (ExecutableElement method : allMethods) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT) || isImplemented(method, allMethods, parentType)) {
+                continue;
+            }
+
+            // The same method may be inherited from several supertypes
+            List<String> signature = new ArrayList<>();
+            signature.add(method.getSimpleName().toString());
+            for (TypeMirror paramType : getMemberType(parentType, method).getParameterTypes()) {
+                signature.add(getTypeName(paramType));
+            }
+            if (signatures.add(signature)) {
+                abstractMethods.add(method);
+            }
+        }
+        return abstractMethods;
+    }
+
+    private boolean isImplemented(ExecutableElement method, List<ExecutableElement> allMethods,
+                                  TypeElement parentType) {
+        for (ExecutableElement other : allMethods) {
+            if (!other.getModifiers().contains(Modifier.ABSTRACT)
+                    && elements.overrides(other, method, parentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the method type as seen from the raw parent type, with the type arguments
+     * that the parent passes to its own supertypes substituted.
+     */
+    private ExecutableType getMemberType(TypeElement parentType, ExecutableElement method) {
+        DeclaredType rawParentType = types.getDeclaredType(parentType);
+        return (ExecutableType) types.asMemberOf(rawParentType, method);
+    }
+
+    private static String getAccessModifier(ExecutableElement executable) {
+        Set<Modifier> modifiers = executable.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return "public ";
+        } else if (modifiers.contains(Modifier.PROTECTED)) {
+            return "protected ";
+        }
+        return "";
+    }
+
+    private String getThrowsClause(ExecutableElement executable) {
+        List<? extends TypeMirror> exceptions = executable.getThrownTypes();
+        StringBuilder throwsClause = new StringBuilder();
+        if (!exceptions.isEmpty()) {
+            throwsClause.append(" throws ");
+            for (int i = 0; i < exceptions.size(); i++) {
+                throwsClause.append(getTypeName(exceptions.get(i)));
+                if (i != exceptions.size() - 1) {
+                    throwsClause.append(", ");
+                }
+            }
+        }
+        return throwsClause.toString();
+    }
+
+    private String getTypeName(TypeMirror type) {
+        return types.erasure(type).toString();
+    }
+
+    private void writeNewline() throws IOException {
+        writer.write("\n");
+    }
+
+    private void writeOpeningBrace() throws IOException {
+        writer.write(" {\n");
+    }
+
+    private void writeClosingBrace(int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        writer.write("}\n");
+    }
+
+    private void writeIndent(int indentLevel) throws IOException {
+        for (int i = 0; i < indentLevel * INDENT_WIDTH; i++) {
+            writer.write(' ');
+        }
+    }
+}
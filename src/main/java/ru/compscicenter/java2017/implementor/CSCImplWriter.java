@@ -8,13 +8,38 @@ public class CSCImplWriter implements ImplWriter {
 
     private static final int INDENT_WIDTH = 4;
 
-    private Writer writer;
+    private static final String LONG_ADDER = "java.util.concurrent.atomic.LongAdder";
+
+    /**
+     * Per-method call accounting emitted next to every stub. Counters are {@code LongAdder}s held in
+     * static final fields, so concurrent callers never contend on a single cache line.
+     */
+    public enum Instrumentation {
+        NONE, COUNTERS, COUNTERS_AND_TIMERS
+    }
+
+    protected Writer writer;
+    protected Package pkg;
+    private Instrumentation instrumentation;
+    private RequestBudget budget;
 
     public CSCImplWriter(Writer writer) {
+        this(writer, Instrumentation.NONE);
+    }
+
+    public CSCImplWriter(Writer writer, Instrumentation instrumentation) {
         this.writer = writer;
+        this.instrumentation = instrumentation;
     }
 
     public void write(Package pkg, String className, Class parentClass) throws IOException {
+        write(pkg, className, parentClass, new RequestBudget(RequestOptions.DEFAULT));
+    }
+
+    @Override
+    public void write(Package pkg, String className, Class parentClass, RequestBudget budget) throws IOException {
+        this.pkg = pkg;
+        this.budget = budget;
         if (pkg != null) {
             writePackageDirective(pkg);
             writeNewline();
@@ -34,36 +59,161 @@ public class CSCImplWriter implements ImplWriter {
     private void writeClass(String className, Class parentClass, int indentLevel) throws IOException {
         writeClassDeclaration(className, parentClass, indentLevel);
 
-        boolean hasDefaultConstructor = parentClass.isInterface();
-        Constructor goodConstructor = null;
-        for (Constructor c : parentClass.getDeclaredConstructors()) {
-            if (!Modifier.isPrivate(c.getModifiers())) {
-                goodConstructor = c;
-                if (c.getParameterTypes().length == 0) {
-                    hasDefaultConstructor = true;
-                }
+        budget.checkpoint("resolving methods");
+        List<Method> abstractMethods = new ArrayList<>();
+        for (Method method : getAllMethods(parentClass, budget)) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                abstractMethods.add(method);
             }
         }
 
-        if (!hasDefaultConstructor) {
+        writeFields(parentClass, abstractMethods, indentLevel + 1);
+
+        if (instrumentation != Instrumentation.NONE && !abstractMethods.isEmpty()) {
             writeNewline();
-            writeParameterlessConstructor(className, goodConstructor, indentLevel + 1);
+            writeCounterFields(abstractMethods.size(), indentLevel + 1);
         }
 
-        for (Method method : getAllMethods(parentClass)) {
-            if (Modifier.isAbstract(method.getModifiers())) {
-                writeNewline();
+        writeConstructors(className, parentClass, indentLevel + 1);
 
-                writeMethodDeclaration(method, indentLevel + 1);
-                writeMethodStub(method, indentLevel + 2);
+        for (int i = 0; i < abstractMethods.size(); i++) {
+            Method method = abstractMethods.get(i);
+            budget.checkpoint("writing " + method.getName());
+            writeNewline();
 
-                writeClosingBrace(indentLevel + 1);
+            writeMethodDeclaration(method, indentLevel + 1);
+            if (instrumentation == Instrumentation.NONE) {
+                writeMethodBody(method, i, indentLevel + 2);
+            } else {
+                writeInstrumentedBody(method, i, indentLevel + 2);
             }
+
+            writeClosingBrace(indentLevel + 1);
+        }
+
+        writeHelperMembers(parentClass, abstractMethods, indentLevel + 1);
+
+        if (instrumentation != Instrumentation.NONE) {
+            writeNewline();
+            writeSnapshotAccessor(abstractMethods, indentLevel + 1);
         }
 
         writeClosingBrace(indentLevel);
     }
 
+    /**
+     * Writes instance or static fields right after the class declaration. Stubs need none.
+     */
+    protected void writeFields(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+    }
+
+    protected void writeConstructors(String className, Class parentClass, int indentLevel) throws IOException {
+        Constructor superConstructor = findSuperConstructor(parentClass);
+        if (superConstructor != null) {
+            writeNewline();
+            writeParameterlessConstructor(className, superConstructor, indentLevel);
+        }
+    }
+
+    /**
+     * Writes the statements of the implementation of the {@code index}-th abstract method.
+     */
+    protected void writeMethodBody(Method method, int index, int indentLevel) throws IOException {
+        writeMethodStub(method, indentLevel);
+    }
+
+    /**
+     * Writes nested classes and accessors placed after the implemented methods. Stubs need none.
+     */
+    protected void writeHelperMembers(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+    }
+
+    private void writeCounterFields(int methodCount, int indentLevel) throws IOException {
+        for (int i = 0; i < methodCount; i++) {
+            writeIndent(indentLevel);
+            writer.write(String.format("private static final %1$s CALLS_%2$d = new %1$s();\n", LONG_ADDER, i));
+            if (instrumentation == Instrumentation.COUNTERS_AND_TIMERS) {
+                writeIndent(indentLevel);
+                writer.write(String.format("private static final %1$s NANOS_%2$d = new %1$s();\n", LONG_ADDER, i));
+            }
+        }
+    }
+
+    private void writeInstrumentedBody(Method method, int index, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        writer.write(String.format("CALLS_%d.increment();\n", index));
+        if (instrumentation != Instrumentation.COUNTERS_AND_TIMERS) {
+            writeMethodBody(method, index, indentLevel);
+            return;
+        }
+
+        // "$" keeps the local from clashing with parameter names taken from the class file
+        writeIndent(indentLevel);
+        writer.write("long startNanos$ = System.nanoTime();\n");
+        writeIndent(indentLevel);
+        writer.write("try");
+        writeOpeningBrace();
+        writeMethodBody(method, index, indentLevel + 1);
+        writeIndent(indentLevel);
+        writer.write("} finally");
+        writeOpeningBrace();
+        writeIndent(indentLevel + 1);
+        writer.write(String.format("NANOS_%d.add(System.nanoTime() - startNanos$);\n", index));
+        writeClosingBrace(indentLevel);
+    }
+
+    private void writeSnapshotAccessor(List<Method> methods, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        writer.write("public static java.util.Map<String, long[]> instrumentationSnapshot()");
+        writeOpeningBrace();
+        writeIndent(indentLevel + 1);
+        writer.write("java.util.Map<String, long[]> snapshot = new java.util.LinkedHashMap<>();\n");
+        for (int i = 0; i < methods.size(); i++) {
+            String nanos = instrumentation == Instrumentation.COUNTERS_AND_TIMERS
+                    ? String.format("NANOS_%d.sum()", i) : "0L";
+            writeIndent(indentLevel + 1);
+            writer.write(String.format("snapshot.put(\"%s\", new long[] {CALLS_%d.sum(), %s});\n",
+                    getSignature(methods.get(i)), i, nanos));
+        }
+        writeIndent(indentLevel + 1);
+        writer.write("return snapshot;\n");
+        writeClosingBrace(indentLevel);
+    }
+
+    private static String getSignature(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName());
+        signature.append("(");
+        Class[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            signature.append(parameterTypes[i].getCanonicalName());
+            if (i != parameterTypes.length - 1) {
+                signature.append(",");
+            }
+        }
+        signature.append(")");
+        return signature.toString();
+    }
+
+    /**
+     * Returns the constructor that a generated constructor has to call explicitly,
+     * or {@code null} if the implicit {@code super()} is enough.
+     */
+    protected static Constructor findSuperConstructor(Class parentClass) {
+        boolean hasDefaultConstructor = parentClass.isInterface();
+        Constructor goodConstructor = null;
+        for (Constructor c : parentClass.getDeclaredConstructors()) {
+            if (!Modifier.isPrivate(c.getModifiers())) {
+                goodConstructor = c;
+                if (c.getParameterTypes().length == 0) {
+                    hasDefaultConstructor = true;
+                }
+            }
+        }
+        return hasDefaultConstructor ? null : goodConstructor;
+    }
+
     private void writeParameterlessConstructor(String className, Constructor goodConstructor, int indentLevel)
             throws IOException {
         writeIndent(indentLevel);
@@ -76,35 +226,22 @@ public class CSCImplWriter implements ImplWriter {
         constructorDeclaration.append(" ");
         constructorDeclaration.append(className);
         constructorDeclaration.append("()");
-
-        Class[] exceptions = goodConstructor.getExceptionTypes();
-        if (exceptions.length > 0) {
-            constructorDeclaration.append(" throws ");
-            for (int i = 0; i < exceptions.length; i++) {
-                constructorDeclaration.append(exceptions[i].getCanonicalName());
-                if (i != exceptions.length - 1) {
-                    constructorDeclaration.append(", ");
-                }
-            }
-        }
+        constructorDeclaration.append(getThrowsClause(goodConstructor.getExceptionTypes()));
 
         writer.write(constructorDeclaration.toString());
 
         writeOpeningBrace();
-        writeIndent(indentLevel + 1);
+        writeSuperCall(goodConstructor, indentLevel + 1);
+        writeClosingBrace(indentLevel);
+    }
+
+    protected void writeSuperCall(Constructor superConstructor, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
         writer.write("super(");
 
-        Class[] parameterTypes = goodConstructor.getParameterTypes();
+        Class[] parameterTypes = superConstructor.getParameterTypes();
         for (int i = 0; i < parameterTypes.length; i++) {
-            if (parameterTypes[i].equals(Character.TYPE)) {
-                writer.write("\\0");
-            } else if (parameterTypes[i].equals(Boolean.TYPE)) {
-                writer.write("false");
-            } else if (parameterTypes[i].isPrimitive()) {
-                writer.write("0");
-            } else {
-                writer.write("null");
-            }
+            writer.write(getDefaultValue(parameterTypes[i]));
             if (i != parameterTypes.length - 1) {
                 writer.write(", ");
             }
@@ -112,10 +249,23 @@ public class CSCImplWriter implements ImplWriter {
 
         writer.write(");");
         writeNewline();
-        writeClosingBrace(indentLevel);
     }
 
-    private void writeClassDeclaration(String className, Class parentClass, int indentLevel) throws IOException {
+    protected static String getThrowsClause(Class[] exceptions) {
+        StringBuilder throwsClause = new StringBuilder();
+        if (exceptions.length > 0) {
+            throwsClause.append(" throws ");
+            for (int i = 0; i < exceptions.length; i++) {
+                throwsClause.append(exceptions[i].getCanonicalName());
+                if (i != exceptions.length - 1) {
+                    throwsClause.append(", ");
+                }
+            }
+        }
+        return throwsClause.toString();
+    }
+
+    protected void writeClassDeclaration(String className, Class parentClass, int indentLevel) throws IOException {
         writeIndent(indentLevel);
 
         String keyword = parentClass.isInterface() ? "implements" : "extends";
@@ -126,7 +276,7 @@ public class CSCImplWriter implements ImplWriter {
         writeOpeningBrace();
     }
 
-    private void writeMethodDeclaration(Method method, int indentLevel) throws IOException {
+    protected void writeMethodDeclaration(Method method, int indentLevel) throws IOException {
         writeIndent(indentLevel);
 
         int modifiers = method.getModifiers();
@@ -153,62 +303,70 @@ public class CSCImplWriter implements ImplWriter {
             }
         }
         methodDeclaration.append(")");
-
-        Class[] exceptions = method.getExceptionTypes();
-        if (exceptions.length > 0) {
-            methodDeclaration.append(" throws ");
-            for (int i = 0; i < exceptions.length; i++) {
-                methodDeclaration.append(exceptions[i].getCanonicalName());
-                if (i != exceptions.length - 1) {
-                    methodDeclaration.append(", ");
-                }
-            }
-        }
+        methodDeclaration.append(getThrowsClause(method.getExceptionTypes()));
 
         writer.write(methodDeclaration.toString());
         writeOpeningBrace();
     }
 
-    private void writeMethodStub(Method method, int indentLevel) throws IOException {
+    protected void writeMethodStub(Method method, int indentLevel) throws IOException {
         if (method.getReturnType().equals(Void.TYPE)) {
             return; // Do nothing
         }
 
         writeIndent(indentLevel);
-        if (method.getReturnType().equals(Character.TYPE)) {
-            writer.write("return '\\0';");
-        } else if (method.getReturnType().equals(Boolean.TYPE)) {
-            writer.write("return false;");
-        } else if (method.getReturnType().isPrimitive()) {
-            // Remaining primitives are numeric
-            writer.write("return 0;");
-        } else {
-            writer.write("return null;");
-        }
+        writer.write("return " + getDefaultValue(method.getReturnType()) + ";");
         writeNewline();
     }
 
-    private void writeNewline() throws IOException {
+    /**
+     * Returns the literal used wherever a generated stub needs a value of the given type.
+     */
+    static String getDefaultValue(Class type) {
+        return getDefaultValue(type.getName());
+    }
+
+    static String getDefaultValue(String typeName) {
+        switch (typeName) {
+            case "char":
+                return "'\\0'";
+            case "boolean":
+                return "false";
+            case "byte":
+            case "short":
+            case "int":
+            case "long":
+            case "float":
+            case "double":
+                return "0";
+            default:
+                return "null";
+        }
+    }
+
+    protected void writeNewline() throws IOException {
         writer.write("\n");
     }
 
-    private void writeOpeningBrace() throws IOException {
+    protected void writeOpeningBrace() throws IOException {
         writer.write(" {\n");
     }
 
-    private void writeClosingBrace(int indentLevel) throws IOException {
+    protected void writeClosingBrace(int indentLevel) throws IOException {
         writeIndent(indentLevel);
         writer.write("}\n");
     }
 
-    private void writeIndent(int indentLevel) throws IOException {
+    protected void writeIndent(int indentLevel) throws IOException {
         for (int i = 0; i < indentLevel * INDENT_WIDTH; i++) {
             writer.write(' ');
         }
     }
 
-    private static List<Method> getAllMethods(Class cls) {
+    protected static List<Method> getAllMethods(Class cls, RequestBudget budget) throws RequestAbortedException {
+        budget.checkpoint("resolving methods of " + cls.getName());
         List<Method> methods = new ArrayList<>(Arrays.asList(cls.getDeclaredMethods()));
+        budget.addResolvedMethods(methods.size());
         Set<List<String>> signatures = new HashSet<>();
 
         for (Method method : methods) {
@@ -221,7 +379,7 @@ public class CSCImplWriter implements ImplWriter {
         }
 
         for (Class inter : cls.getInterfaces()) {
-            for (Method method : getAllMethods(inter)) {
+            for (Method method : getAllMethods(inter, budget)) {
                 List<String> signature = new ArrayList<>();
                 signature.add(method.getName());
                 for (Class t : method.getParameterTypes()) {
@@ -235,7 +393,7 @@ public class CSCImplWriter implements ImplWriter {
         }
 
         if (cls.getSuperclass() != null) {
-            for (Method method : getAllMethods(cls.getSuperclass())) {
+            for (Method method : getAllMethods(cls.getSuperclass(), budget)) {
                 List<String> signature = new ArrayList<>();
                 signature.add(method.getName());
                 for (Class t : method.getParameterTypes()) {
@@ -7,39 +7,88 @@ import java.nio.file.*;
 
 public final class CSCImplementor implements Implementor {
 
-    private String outputDirectory;
+    private SourceOutput output;
+    private ImplWriterFactory writerFactory;
 
     public CSCImplementor(String outputDirectory) {
-        this.outputDirectory = outputDirectory;
+        this(outputDirectory, CSCImplWriter::new);
+    }
+
+    public CSCImplementor(String outputDirectory, ImplWriterFactory writerFactory) {
+        this(new DirectoryOutput(outputDirectory), writerFactory);
+    }
+
+    public CSCImplementor(SourceOutput output, ImplWriterFactory writerFactory) {
+        this.output = output;
+        this.writerFactory = writerFactory;
     }
 
     @Override
     public String implementFromDirectory(String directoryPath, String className) throws ImplementorException, MalformedURLException {
+        return implementFromDirectory(directoryPath, className, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #implementFromDirectory(String, String)}, but stops the request with a
+     * {@link RequestAbortedException} cause once it goes beyond the given options.
+     */
+    public String implementFromDirectory(String directoryPath, String className, RequestOptions options)
+            throws ImplementorException, MalformedURLException {
         Path path = Paths.get(directoryPath).toAbsolutePath();
         URL localURL;
             localURL = path.toUri().toURL();
         ClassLoader classLoader = new URLClassLoader(new URL[] {localURL});
-        Class clazz;
-        try {
-            clazz = classLoader.loadClass(className);
-        } catch (ClassNotFoundException e) {
-            throw new ImplementorException("Class not found", e);
-        }
-        return implement(clazz.getPackage(), clazz, this.outputDirectory);
+        return implementFromClassLoader(classLoader, className, options);
+    }
+
+    /**
+     * Same as {@link #implementFromDirectory}, but lets a caller that implements many classes
+     * from one directory load all of them with the same class loader, and lets the classes
+     * depend on types from elsewhere on the caller's class path.
+     */
+    public String implementFromClassLoader(ClassLoader classLoader, String className) throws ImplementorException {
+        return implementFromClassLoader(classLoader, className, RequestOptions.DEFAULT);
+    }
+
+    private String implementFromClassLoader(ClassLoader classLoader, String className, RequestOptions options)
+            throws ImplementorException {
+        RequestBudget budget = new RequestBudget(options);
+        Class clazz = loadClass(className, classLoader, budget);
+        return implement(clazz.getPackage(), clazz, budget);
     }
 
     @Override
     public String implementFromStandardLibrary(String className) throws ImplementorException {
-        Class cls;
+        return implementFromStandardLibrary(className, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #implementFromStandardLibrary(String)}, but stops the request with a
+     * {@link RequestAbortedException} cause once it goes beyond the given options.
+     */
+    public String implementFromStandardLibrary(String className, RequestOptions options) throws ImplementorException {
+        RequestBudget budget = new RequestBudget(options);
+        Class cls = loadClass(className, CSCImplementor.class.getClassLoader(), budget);
+        return implement(null, cls, budget);
+    }
+
+    /**
+     * Loads the class without initializing it: generation only needs reflection,
+     * and static initializers may be arbitrarily slow.
+     */
+    private static Class loadClass(String className, ClassLoader classLoader, RequestBudget budget)
+            throws ImplementorException {
         try {
-            cls = Class.forName(className);
+            budget.checkpoint("loading " + className);
+            return Class.forName(className, false, classLoader);
         } catch (ClassNotFoundException e) {
             throw new ImplementorException("Class not found", e);
+        } catch (RequestAbortedException e) {
+            throw new ImplementorException(e.getMessage(), e);
         }
-        return implement(null, cls, this.outputDirectory);
     }
 
-    private String implement(Package pkg, Class cls, String outDir) throws ImplementorException {
+    private String implement(Package pkg, Class cls, RequestBudget budget) throws ImplementorException {
         if (Modifier.isFinal(cls.getModifiers())) {
             throw new ImplementorException("Final class");
         }
@@ -57,20 +106,26 @@ public final class CSCImplementor implements Implementor {
 
         String implName = cls.getSimpleName() + "Impl";
         String implFilename = implName + ".java";
-        String packageDir = "";
+        String sourcePath = implFilename;
         if (pkg != null) {
-            packageDir = pkg.getName().replaceAll("\\.", "/");
+            sourcePath = pkg.getName().replaceAll("\\.", "/") + "/" + implFilename;
         }
-        File outputFile = Paths.get(outDir, packageDir, implFilename).toFile();
+
+        // The source is generated in memory first, so an aborted request leaves no partial file
+        StringWriter source = new StringWriter();
         try {
-            outputFile.getParentFile().mkdirs();
-            outputFile.createNewFile();
+            ImplWriter implWriter = writerFactory.create(new BudgetedWriter(source, budget));
+            implWriter.write(pkg, implName, cls, budget);
+            budget.checkpoint("writing " + sourcePath);
+        } catch (RequestAbortedException e) {
+            throw new ImplementorException(e.getMessage(), e);
         } catch (IOException e) {
             throw new ImplementorException("", e);
         }
-        try (FileWriter fileWriter = new FileWriter(outputFile)) {
-            ImplWriter implWriter = new CSCImplWriter(fileWriter);
-            implWriter.write(pkg, implName, cls);
+        try (Writer sourceWriter = output.openSource(sourcePath)) {
+            sourceWriter.write(source.toString());
+        } catch (FileAlreadyExistsException e) {
+            throw new ImplementorException("Duplicate source " + sourcePath, e);
         } catch (IOException e) {
             throw new ImplementorException("", e);
         }
@@ -0,0 +1,351 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Generates a forwarding decorator that memoizes the results of the selected non-void methods.
+ * Every memoized method gets its own bounded cache, split into lock-striped LRU segments, so the
+ * eviction order is LRU within a segment. Arguments are packed into a generated key class with
+ * fields of the exact parameter types, which keeps primitive arguments unboxed.
+ * Array arguments are copied into the key, so the caller may reuse them. A single reference
+ * argument is used as the key directly.
+ */
+public class CSCMemoizingWriter extends CSCDelegateWriter {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int SEGMENTS = 16;
+
+    private static final String LONG_ADDER = "java.util.concurrent.atomic.LongAdder";
+
+    private static final Map<Class, Class> WRAPPERS = new HashMap<>();
+
+    static {
+        WRAPPERS.put(Boolean.TYPE, Boolean.class);
+        WRAPPERS.put(Byte.TYPE, Byte.class);
+        WRAPPERS.put(Character.TYPE, Character.class);
+        WRAPPERS.put(Short.TYPE, Short.class);
+        WRAPPERS.put(Integer.TYPE, Integer.class);
+        WRAPPERS.put(Long.TYPE, Long.class);
+        WRAPPERS.put(Float.TYPE, Float.class);
+        WRAPPERS.put(Double.TYPE, Double.class);
+    }
+
+    private Set<String> methodNames;
+    private int capacity;
+
+    /**
+     * @param methodNames names of the methods to memoize, must not be empty
+     */
+    public CSCMemoizingWriter(Writer writer, Set<String> methodNames) {
+        this(writer, methodNames, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Only pure methods should be selected: a memoized method never sees the later changes
+     * of the delegate's state.
+     *
+     * @param methodNames names of the methods to memoize, must not be empty
+     * @param capacity maximum number of cached results per method
+     */
+    public CSCMemoizingWriter(Writer writer, Set<String> methodNames, int capacity) {
+        super(writer);
+        if (methodNames.isEmpty()) {
+            throw new IllegalArgumentException("No methods are selected for memoization");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        this.methodNames = new HashSet<>(methodNames);
+        this.capacity = capacity;
+    }
+
+    private boolean isMemoized(Method method) {
+        return !method.getReturnType().equals(Void.TYPE) && canForward(method)
+                && methodNames.contains(method.getName());
+    }
+
+    @Override
+    protected void writeFields(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+        super.writeFields(parentClass, abstractMethods, indentLevel);
+
+        writeIndent(indentLevel);
+        writer.write(String.format("private final %1$s cacheHits = new %1$s();\n", LONG_ADDER));
+        writeIndent(indentLevel);
+        writer.write(String.format("private final %1$s cacheMisses = new %1$s();\n", LONG_ADDER));
+        for (int i = 0; i < abstractMethods.size(); i++) {
+            if (isMemoized(abstractMethods.get(i))) {
+                writeIndent(indentLevel);
+                writer.write(String.format("private final MemoCache cache%d = new MemoCache(%d);\n", i, capacity));
+            }
+        }
+
+        writeNewline();
+        // Stands for a cached null result, for a null argument and for an empty argument list
+        writeIndent(indentLevel);
+        writer.write("private static final Object NULL_VALUE = new Object();\n");
+    }
+
+    @Override
+    protected void writeMethodBody(Method method, int index, int indentLevel) throws IOException {
+        if (!isMemoized(method)) {
+            super.writeMethodBody(method, index, indentLevel);
+            return;
+        }
+
+        Class returnType = method.getReturnType();
+        String cacheName = "this.cache" + index;
+
+        writeIndent(indentLevel);
+        writer.write(String.format("Object key$ = %s;\n", getKeyExpression(method, index)));
+        writeIndent(indentLevel);
+        writer.write(String.format("Object cached$ = %s.get(key$);\n", cacheName));
+        writeIndent(indentLevel);
+        writer.write("if (cached$ != null)");
+        writeOpeningBrace();
+        writeIndent(indentLevel + 1);
+        writer.write("this.cacheHits.increment();\n");
+        writeIndent(indentLevel + 1);
+        if (returnType.isPrimitive()) {
+            writer.write(String.format("return (%s) cached$;\n", WRAPPERS.get(returnType).getCanonicalName()));
+        } else {
+            writer.write(String.format("return cached$ == NULL_VALUE ? null : (%s) cached$;\n",
+                    returnType.getCanonicalName()));
+        }
+        writeClosingBrace(indentLevel);
+
+        writeIndent(indentLevel);
+        writer.write("this.cacheMisses.increment();\n");
+        writeIndent(indentLevel);
+        writer.write(String.format("%s result$ = %s;\n", returnType.getCanonicalName(), getForwardingCall(method)));
+        writeIndent(indentLevel);
+        if (returnType.isPrimitive()) {
+            writer.write(String.format("%s.put(key$, result$);\n", cacheName));
+        } else {
+            writer.write(String.format("%s.put(key$, result$ == null ? NULL_VALUE : result$);\n", cacheName));
+        }
+        writeIndent(indentLevel);
+        writer.write("return result$;\n");
+    }
+
+    private static boolean needsKeyClass(Method method) {
+        Class[] parameterTypes = method.getParameterTypes();
+        return parameterTypes.length > 1
+                || parameterTypes.length == 1 && (parameterTypes[0].isPrimitive() || parameterTypes[0].isArray());
+    }
+
+    private static String getKeyExpression(Method method, int index) {
+        Parameter[] params = method.getParameters();
+        if (params.length == 0) {
+            return "NULL_VALUE";
+        }
+        if (!needsKeyClass(method)) {
+            return String.format("%1$s == null ? NULL_VALUE : %1$s", params[0].getName());
+        }
+
+        StringBuilder key = new StringBuilder("new Key");
+        key.append(index);
+        key.append("(");
+        for (int i = 0; i < params.length; i++) {
+            key.append(params[i].getName());
+            if (i != params.length - 1) {
+                key.append(", ");
+            }
+        }
+        key.append(")");
+        return key.toString();
+    }
+
+    @Override
+    protected void writeHelperMembers(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+        writeNewline();
+        writeCounterAccessor("cacheHitCount", "cacheHits", indentLevel);
+        writeNewline();
+        writeCounterAccessor("cacheMissCount", "cacheMisses", indentLevel);
+
+        for (int i = 0; i < abstractMethods.size(); i++) {
+            Method method = abstractMethods.get(i);
+            if (isMemoized(method) && needsKeyClass(method)) {
+                writeNewline();
+                writeKeyClass(method.getParameterTypes(), i, indentLevel);
+            }
+        }
+
+        writeNewline();
+        writeCacheClasses(indentLevel);
+    }
+
+    private void writeCounterAccessor(String name, String field, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+        writer.write(String.format("public long %s()", name));
+        writeOpeningBrace();
+        writeIndent(indentLevel + 1);
+        writer.write(String.format("return this.%s.sum();\n", field));
+        writeClosingBrace(indentLevel);
+    }
+
+    private void writeKeyClass(Class[] parameterTypes, int index, int indentLevel) throws IOException {
+        String keyName = "Key" + index;
+
+        writeIndent(indentLevel);
+        writer.write(String.format("private static final class %s", keyName));
+        writeOpeningBrace();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            writeIndent(indentLevel + 1);
+            writer.write(String.format("private final %s a%d;\n", parameterTypes[i].getCanonicalName(), i));
+        }
+
+        writeNewline();
+        writeIndent(indentLevel + 1);
+        StringBuilder constructorDeclaration = new StringBuilder(keyName);
+        constructorDeclaration.append("(");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            constructorDeclaration.append(parameterTypes[i].getCanonicalName());
+            constructorDeclaration.append(" a");
+            constructorDeclaration.append(i);
+            if (i != parameterTypes.length - 1) {
+                constructorDeclaration.append(", ");
+            }
+        }
+        constructorDeclaration.append(")");
+        writer.write(constructorDeclaration.toString());
+        writeOpeningBrace();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            writeIndent(indentLevel + 2);
+            if (parameterTypes[i].isArray()) {
+                writer.write(String.format("this.a%1$d = a%1$d == null ? null : a%1$d.clone();\n", i));
+            } else {
+                writer.write(String.format("this.a%1$d = a%1$d;\n", i));
+            }
+        }
+        writeClosingBrace(indentLevel + 1);
+
+        writeNewline();
+        writeIndent(indentLevel + 1);
+        writer.write("@Override\n");
+        writeIndent(indentLevel + 1);
+        writer.write("public boolean equals(Object o)");
+        writeOpeningBrace();
+        writeIndent(indentLevel + 2);
+        writer.write(String.format("if (!(o instanceof %s))", keyName));
+        writeOpeningBrace();
+        writeIndent(indentLevel + 3);
+        writer.write("return false;\n");
+        writeClosingBrace(indentLevel + 2);
+        writeIndent(indentLevel + 2);
+        writer.write(String.format("%1$s other = (%1$s) o;\n", keyName));
+        writeIndent(indentLevel + 2);
+        writer.write("return ");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            writer.write(getEqualsExpression(parameterTypes[i], "a" + i, "other.a" + i));
+            if (i != parameterTypes.length - 1) {
+                writer.write(" && ");
+            }
+        }
+        writer.write(";\n");
+        writeClosingBrace(indentLevel + 1);
+
+        writeNewline();
+        writeIndent(indentLevel + 1);
+        writer.write("@Override\n");
+        writeIndent(indentLevel + 1);
+        writer.write("public int hashCode()");
+        writeOpeningBrace();
+        writeIndent(indentLevel + 2);
+        writer.write("int h = 1;\n");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            writeIndent(indentLevel + 2);
+            writer.write(String.format("h = 31 * h + %s;\n", getHashCodeExpression(parameterTypes[i], "a" + i)));
+        }
+        writeIndent(indentLevel + 2);
+        writer.write("return h;\n");
+        writeClosingBrace(indentLevel + 1);
+
+        writeClosingBrace(indentLevel);
+    }
+
+    private static String getEqualsExpression(Class type, String left, String right) {
+        if (type.equals(Float.TYPE) || type.equals(Double.TYPE)) {
+            // compare() treats NaN as equal to itself, like Float.equals and Double.equals
+            return String.format("%s.compare(%s, %s) == 0", WRAPPERS.get(type).getCanonicalName(), left, right);
+        } else if (type.isPrimitive()) {
+            return String.format("%s == %s", left, right);
+        } else if (type.isArray()) {
+            return String.format("java.util.Arrays.equals(%s, %s)", left, right);
+        } else {
+            return String.format("java.util.Objects.equals(%s, %s)", left, right);
+        }
+    }
+
+    private static String getHashCodeExpression(Class type, String field) {
+        if (type.isPrimitive()) {
+            return String.format("%s.hashCode(%s)", WRAPPERS.get(type).getCanonicalName(), field);
+        } else if (type.isArray()) {
+            return String.format("java.util.Arrays.hashCode(%s)", field);
+        } else {
+            return String.format("java.util.Objects.hashCode(%s)", field);
+        }
+    }
+
+    private void writeCacheClasses(int indentLevel) throws IOException {
+        String[] lines = {
+            "private static final class MemoCache {",
+            "    private final Segment[] segments;",
+            "",
+            "    MemoCache(int capacity) {",
+            "        // The segment capacities add up to exactly the cache capacity",
+            "        segments = new Segment[Math.min(" + SEGMENTS + ", capacity)];",
+            "        int remainder = capacity % segments.length;",
+            "        for (int i = 0; i < segments.length; i++) {",
+            "            segments[i] = new Segment(capacity / segments.length + (i < remainder ? 1 : 0));",
+            "        }",
+            "    }",
+            "",
+            "    Object get(Object key) {",
+            "        Segment segment = segmentFor(key);",
+            "        synchronized (segment) {",
+            "            return segment.get(key);",
+            "        }",
+            "    }",
+            "",
+            "    void put(Object key, Object value) {",
+            "        Segment segment = segmentFor(key);",
+            "        synchronized (segment) {",
+            "            segment.put(key, value);",
+            "        }",
+            "    }",
+            "",
+            "    private Segment segmentFor(Object key) {",
+            "        int h = key.hashCode();",
+            "        h ^= h >>> 16;",
+            "        return segments[(h & Integer.MAX_VALUE) % segments.length];",
+            "    }",
+            "}",
+            "",
+            "private static final class Segment extends java.util.LinkedHashMap<Object, Object> {",
+            "    private final int capacity;",
+            "",
+            "    Segment(int capacity) {",
+            "        super(16, 0.75f, true);",
+            "        this.capacity = capacity;",
+            "    }",
+            "",
+            "    @Override",
+            "    protected boolean removeEldestEntry(java.util.Map.Entry<Object, Object> eldest) {",
+            "        return size() > capacity;",
+            "    }",
+            "}",
+        };
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                writeIndent(indentLevel);
+                writer.write(line);
+            }
+            writeNewline();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Generates a null object: a {@code final} class with a shared {@code INSTANCE} whose methods
+ * do nothing and return shared constants. Collection-like return types get the empty immutable
+ * instances from {@link Collections}, {@code Optional} types get {@code empty()}, strings get
+ * {@code ""} and arrays get a shared empty array. Other types get the usual stub defaults.
+ *
+ * A shared value is only returned where it is type-safe. If the generic return type is a type
+ * variable or a generic array, as in {@code <T> T[] toArray(T[])}, the caller decides the runtime
+ * type of the result. Such a method returns its parameter of the same generic type; for
+ * {@code toArray} the element after the (empty) collection is set to {@code null}, as
+ * {@link Collection#toArray(Object[])} requires. Without such a parameter the method gets the
+ * usual stub default. Type arguments of a parameterized return type don't matter, because the
+ * shared values are empty.
+ *
+ * {@code INSTANCE} is only generated when the parent constructor throws no checked exceptions,
+ * otherwise the class keeps a public constructor.
+ */
+public class CSCNullObjectWriter extends CSCImplWriter {
+
+    private static final Map<Class, String> SHARED_VALUES = new HashMap<>();
+
+    static {
+        SHARED_VALUES.put(Iterable.class, "java.util.Collections.emptyList()");
+        SHARED_VALUES.put(Collection.class, "java.util.Collections.emptyList()");
+        SHARED_VALUES.put(List.class, "java.util.Collections.emptyList()");
+        SHARED_VALUES.put(Set.class, "java.util.Collections.emptySet()");
+        SHARED_VALUES.put(SortedSet.class, "java.util.Collections.emptySortedSet()");
+        SHARED_VALUES.put(NavigableSet.class, "java.util.Collections.emptyNavigableSet()");
+        SHARED_VALUES.put(Map.class, "java.util.Collections.emptyMap()");
+        SHARED_VALUES.put(SortedMap.class, "java.util.Collections.emptySortedMap()");
+        SHARED_VALUES.put(NavigableMap.class, "java.util.Collections.emptyNavigableMap()");
+        SHARED_VALUES.put(Iterator.class, "java.util.Collections.emptyIterator()");
+        SHARED_VALUES.put(ListIterator.class, "java.util.Collections.emptyListIterator()");
+        SHARED_VALUES.put(Enumeration.class, "java.util.Collections.emptyEnumeration()");
+        SHARED_VALUES.put(Optional.class, "java.util.Optional.empty()");
+        SHARED_VALUES.put(OptionalInt.class, "java.util.OptionalInt.empty()");
+        SHARED_VALUES.put(OptionalLong.class, "java.util.OptionalLong.empty()");
+        SHARED_VALUES.put(OptionalDouble.class, "java.util.OptionalDouble.empty()");
+        SHARED_VALUES.put(String.class, "\"\"");
+        SHARED_VALUES.put(CharSequence.class, "\"\"");
+    }
+
+    private Map<Class, String> emptyArrays = new HashMap<>();
+
+    public CSCNullObjectWriter(Writer writer) {
+        super(writer);
+    }
+
+    public CSCNullObjectWriter(Writer writer, Instrumentation instrumentation) {
+        super(writer, instrumentation);
+    }
+
+    @Override
+    protected void writeClassDeclaration(String className, Class parentClass, int indentLevel) throws IOException {
+        writeIndent(indentLevel);
+
+        String keyword = parentClass.isInterface() ? "implements" : "extends";
+        String classDeclaration = String.format("public final class %s %s %s", className, keyword,
+                parentClass.getCanonicalName());
+        writer.write(classDeclaration);
+
+        writeOpeningBrace();
+    }
+
+    @Override
+    protected void writeFields(Class parentClass, List<Method> abstractMethods, int indentLevel)
+            throws IOException {
+        for (Method method : abstractMethods) {
+            Class returnType = method.getReturnType();
+            if (returnType.isArray() && hasFixedReturnType(method) && !emptyArrays.containsKey(returnType)) {
+                String name = "EMPTY_ARRAY_" + emptyArrays.size();
+                emptyArrays.put(returnType, name);
+
+                if (emptyArrays.size() == 1) {
+                    writeNewline();
+                }
+                writeIndent(indentLevel);
+                writer.write(String.format("private static final %s %s = %s;\n", returnType.getCanonicalName(),
+                        name, getEmptyArrayExpression(returnType)));
+            }
+        }
+    }
+
+    private static String getEmptyArrayExpression(Class arrayType) {
+        int dimensions = 0;
+        Class elementType = arrayType;
+        while (elementType.isArray()) {
+            elementType = elementType.getComponentType();
+            dimensions++;
+        }
+
+        StringBuilder expression = new StringBuilder("new ");
+        expression.append(elementType.getCanonicalName());
+        expression.append("[0]");
+        for (int i = 1; i < dimensions; i++) {
+            expression.append("[]");
+        }
+        return expression.toString();
+    }
+
+    @Override
+    protected void writeConstructors(String className, Class parentClass, int indentLevel) throws IOException {
+        Constructor superConstructor = findSuperConstructor(parentClass);
+        if (superConstructor != null && throwsCheckedExceptions(superConstructor)) {
+            super.writeConstructors(className, parentClass, indentLevel);
+            return;
+        }
+
+        writeNewline();
+        writeIndent(indentLevel);
+        writer.write(String.format("public static final %1$s INSTANCE = new %1$s();\n", className));
+
+        writeNewline();
+        writeIndent(indentLevel);
+        writer.write(String.format("private %s()", className));
+        writeOpeningBrace();
+        if (superConstructor != null) {
+            writeSuperCall(superConstructor, indentLevel + 1);
+        }
+        writeClosingBrace(indentLevel);
+    }
+
+    private static boolean throwsCheckedExceptions(Constructor constructor) {
+        for (Class exception : constructor.getExceptionTypes()) {
+            if (!RuntimeException.class.isAssignableFrom(exception) && !Error.class.isAssignableFrom(exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasFixedReturnType(Method method) {
+        Type returnType = method.getGenericReturnType();
+        return !(returnType instanceof TypeVariable) && !(returnType instanceof GenericArrayType);
+    }
+
+    @Override
+    protected void writeMethodBody(Method method, int index, int indentLevel) throws IOException {
+        Class returnType = method.getReturnType();
+        String sharedValue = null;
+        if (hasFixedReturnType(method)) {
+            sharedValue = returnType.isArray() ? emptyArrays.get(returnType) : SHARED_VALUES.get(returnType);
+        }
+        if (sharedValue == null) {
+            writeReturnOfSameTypedParameter(method, indentLevel);
+            return;
+        }
+
+        writeIndent(indentLevel);
+        writer.write("return " + sharedValue + ";");
+        writeNewline();
+    }
+
+    private void writeReturnOfSameTypedParameter(Method method, int indentLevel) throws IOException {
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        Parameter[] params = method.getParameters();
+        for (int i = 0; i < parameterTypes.length && !hasFixedReturnType(method); i++) {
+            if (parameterTypes[i].equals(method.getGenericReturnType())) {
+                String name = params[i].getName();
+                if (method.getName().equals("toArray") && parameterTypes.length == 1) {
+                    writeIndent(indentLevel);
+                    writer.write(String.format("if (%s.length > 0)", name));
+                    writeOpeningBrace();
+                    writeIndent(indentLevel + 1);
+                    writer.write(String.format("%s[0] = null;\n", name));
+                    writeClosingBrace(indentLevel);
+                }
+                writeIndent(indentLevel);
+                writer.write("return " + name + ";");
+                writeNewline();
+                return;
+            }
+        }
+        writeMethodStub(method, indentLevel);
+    }
+}
@@ -0,0 +1,18 @@
+package ru.compscicenter.java2017.implementor;
+
+/**
+ * Lets another thread stop a request. The request checks the token between generation phases
+ * and between methods, and fails with a {@link RequestAbortedException} cause once it is cancelled.
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
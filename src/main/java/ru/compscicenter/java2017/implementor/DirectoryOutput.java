@@ -0,0 +1,24 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Writes every source to its own file under the output directory.
+ */
+public class DirectoryOutput implements SourceOutput {
+
+    private String outputDirectory;
+
+    public DirectoryOutput(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    @Override
+    public Writer openSource(String path) throws IOException {
+        File outputFile = Paths.get(outputDirectory, path.split("/")).toFile();
+        outputFile.getParentFile().mkdirs();
+        outputFile.createNewFile();
+        return new FileWriter(outputFile);
+    }
+}
@@ -4,4 +4,12 @@ import java.io.IOException;
 
 public interface ImplWriter {
     void write(Package pkg, String className, Class parentClass) throws IOException;
+
+    /**
+     * Same as {@link #write(Package, String, Class)}, but lets the writer check the request budget
+     * while it works. Writers that don't override it are only checked before and after writing.
+     */
+    default void write(Package pkg, String className, Class parentClass, RequestBudget budget) throws IOException {
+        write(pkg, className, parentClass);
+    }
 }
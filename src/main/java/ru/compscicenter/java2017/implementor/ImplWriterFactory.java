@@ -0,0 +1,7 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.Writer;
+
+public interface ImplWriterFactory {
+    ImplWriter create(Writer writer);
+}
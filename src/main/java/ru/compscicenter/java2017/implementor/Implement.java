@@ -0,0 +1,12 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks an interface or abstract class for which {@link ImplementorProcessor} generates
+ * a {@code *Impl} stub in the same package during compilation.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Implement {
+}
@@ -0,0 +1,127 @@
+package ru.compscicenter.java2017.implementor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.tools.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates {@code *Impl} stubs inside javac, so the parent types don't have to be compiled and
+ * loaded first. Handles types marked with {@link Implement} and the fully qualified names listed,
+ * one per line, in the file given by the {@code implementor.types} option.
+ *
+ * Marked types get the implementation in their own package. Listed types from the
+ * {@code java.} and {@code javax.} packages get it in the default package,
+ * like {@link Implementor#implementFromStandardLibrary}.
+ *
+ * The processor asks for all annotations, because javac doesn't run a processor whose annotations
+ * are absent, and the listed types have to be implemented in any compilation. It claims none of
+ * them, so other processors still see every annotation.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(ImplementorProcessor.TYPES_OPTION)
+public class ImplementorProcessor extends AbstractProcessor {
+
+    public static final String TYPES_OPTION = "implementor.types";
+
+    private boolean listedTypesProcessed;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Implement.class)) {
+            if (element.getKind().isClass() || element.getKind().isInterface()) {
+                implement((TypeElement) element, false);
+            } else {
+                error("@Implement is only applicable to classes and interfaces", element);
+            }
+        }
+
+        if (!listedTypesProcessed) {
+            listedTypesProcessed = true;
+            for (String typeName : readListedTypes()) {
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(typeName);
+                if (type == null) {
+                    error("Class not found: " + typeName, null);
+                } else {
+                    implement(type, true);
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<String> readListedTypes() {
+        String typesFile = processingEnv.getOptions().get(TYPES_OPTION);
+        if (typesFile == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> typeNames = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(typesFile), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    typeNames.add(line);
+                }
+            }
+        } catch (IOException e) {
+            error("Can't read " + typesFile + ": " + e.getMessage(), null);
+        }
+        return typeNames;
+    }
+
+    private void implement(TypeElement type, boolean listed) {
+        if (type.getModifiers().contains(Modifier.FINAL)) {
+            error("Final class", type);
+            return;
+        }
+        if (type.getKind() == ElementKind.ENUM || type.getKind() == ElementKind.ANNOTATION_TYPE) {
+            error("Can't implement " + type.getKind().toString().toLowerCase(), type);
+            return;
+        }
+        if (type.getKind() == ElementKind.CLASS && !hasGoodConstructor(type)) {
+            error("Private constructors", type);
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        if (listed && (packageName.startsWith("java.") || packageName.startsWith("javax."))) {
+            packageName = "";
+        }
+        String implName = type.getSimpleName() + "Impl";
+        String qualifiedImplName = packageName.isEmpty() ? implName : packageName + "." + implName;
+
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedImplName, type);
+            try (Writer writer = sourceFile.openWriter()) {
+                CSCElementImplWriter implWriter = new CSCElementImplWriter(writer,
+                        processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+                implWriter.write(packageName, implName, type);
+            }
+        } catch (IOException e) {
+            error("Can't write " + qualifiedImplName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private static boolean hasGoodConstructor(TypeElement type) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR && !member.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void error(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+/**
+ * Passes every request to another {@link Implementor} and records it, with its timing and
+ * outcome, to a {@link WorkloadRecorder}. The log can be replayed by {@link WorkloadReplayer}.
+ * Requests that fail with an error, such as a {@link NoClassDefFoundError} for a missing
+ * supertype, are recorded as well. A failure to write the log is reported to stderr and doesn't
+ * fail the request.
+ */
+public final class RecordingImplementor implements Implementor {
+
+    private final Implementor implementor;
+    private final WorkloadRecorder recorder;
+
+    public RecordingImplementor(Implementor implementor, WorkloadRecorder recorder) {
+        this.implementor = implementor;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public String implementFromDirectory(String directoryPath, String className)
+            throws ImplementorException, MalformedURLException {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try {
+            String implName = implementor.implementFromDirectory(directoryPath, className);
+            record(startMillis, startNanos, WorkloadEntry.Source.DIRECTORY, directoryPath, className, true, implName);
+            return implName;
+        } catch (ImplementorException | MalformedURLException | RuntimeException | Error e) {
+            record(startMillis, startNanos, WorkloadEntry.Source.DIRECTORY, directoryPath, className, false,
+                    e.toString());
+            throw e;
+        }
+    }
+
+    @Override
+    public String implementFromStandardLibrary(String className) throws ImplementorException {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try {
+            String implName = implementor.implementFromStandardLibrary(className);
+            record(startMillis, startNanos, WorkloadEntry.Source.STANDARD_LIBRARY, null, className, true, implName);
+            return implName;
+        } catch (ImplementorException | RuntimeException | Error e) {
+            record(startMillis, startNanos, WorkloadEntry.Source.STANDARD_LIBRARY, null, className, false,
+                    e.toString());
+            throw e;
+        }
+    }
+
+    private void record(long startMillis, long startNanos, WorkloadEntry.Source source, String directory,
+                        String className, boolean success, String result) {
+        long durationNanos = System.nanoTime() - startNanos;
+        try {
+            recorder.record(new WorkloadEntry(startMillis, source, directory, className, durationNanos,
+                    success, result));
+        } catch (IOException e) {
+            System.err.println("Can't record workload entry: " + e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.util.*;
+
+/**
+ * Latency and throughput of a {@link WorkloadReplayer} run.
+ */
+public final class ReplayReport {
+
+    private final long[] sortedLatencies;
+    private final int failures;
+    private final int outcomeChanges;
+    private final long wallNanos;
+
+    /**
+     * @param latencies latencies of all requests in nanoseconds, in any order
+     */
+    public ReplayReport(long[] latencies, int failures, int outcomeChanges, long wallNanos) {
+        this.sortedLatencies = latencies.clone();
+        Arrays.sort(this.sortedLatencies);
+        this.failures = failures;
+        this.outcomeChanges = outcomeChanges;
+        this.wallNanos = wallNanos;
+    }
+
+    public int getRequests() {
+        return sortedLatencies.length;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of requests that failed in the log but succeeded in the replay or vice versa.
+     */
+    public int getOutcomeChanges() {
+        return outcomeChanges;
+    }
+
+    /**
+     * Returns completed requests per second of wall-clock time.
+     */
+    public double getThroughput() {
+        return wallNanos == 0 ? 0 : sortedLatencies.length * 1e9 / wallNanos;
+    }
+
+    /**
+     * Returns the request latency in nanoseconds at the given percentile (nearest-rank).
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.length);
+        return sortedLatencies[Math.max(0, Math.min(rank, sortedLatencies.length) - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d requests, %d failed, %d changed outcome, %.1f req/s, "
+                        + "latency ms p50=%.3f p90=%.3f p99=%.3f max=%.3f",
+                getRequests(), failures, outcomeChanges, getThroughput(),
+                getLatencyPercentile(50) / 1e6, getLatencyPercentile(90) / 1e6,
+                getLatencyPercentile(99) / 1e6, getLatencyPercentile(100) / 1e6);
+    }
+}
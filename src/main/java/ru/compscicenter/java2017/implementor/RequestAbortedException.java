@@ -0,0 +1,25 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.IOException;
+
+/**
+ * Cause of an {@link ImplementorException} for a request stopped by its {@link RequestOptions}.
+ * It is an {@link IOException} so that it passes through {@link ImplWriter}s unchanged.
+ */
+public class RequestAbortedException extends IOException {
+
+    public enum Reason {
+        DEADLINE_EXCEEDED, CANCELLED, METHOD_LIMIT_EXCEEDED, BYTE_LIMIT_EXCEEDED
+    }
+
+    private final Reason reason;
+
+    public RequestAbortedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
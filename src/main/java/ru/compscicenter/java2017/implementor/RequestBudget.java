@@ -0,0 +1,55 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks what a single request has used of its {@link RequestOptions}.
+ * Created at the start of the request and used by the thread that runs it.
+ */
+public final class RequestBudget {
+
+    private final RequestOptions options;
+    private final long startNanos;
+    private int methods;
+    private long bytes;
+
+    RequestBudget(RequestOptions options) {
+        this.options = options;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Fails if the request is cancelled or past its deadline.
+     *
+     * @param phase what the request is about to do, for the error message
+     */
+    public void checkpoint(String phase) throws RequestAbortedException {
+        CancellationToken token = options.getCancellationToken();
+        if (token != null && token.isCancelled()) {
+            throw new RequestAbortedException(RequestAbortedException.Reason.CANCELLED,
+                    "Cancelled before " + phase);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (options.getTimeoutNanos() > 0 && elapsedNanos > options.getTimeoutNanos()) {
+            throw new RequestAbortedException(RequestAbortedException.Reason.DEADLINE_EXCEEDED,
+                    String.format("Deadline exceeded after %d ms before %s",
+                            TimeUnit.NANOSECONDS.toMillis(elapsedNanos), phase));
+        }
+    }
+
+    public void addResolvedMethods(int count) throws RequestAbortedException {
+        methods += count;
+        if (methods > options.getMaxMethods()) {
+            throw new RequestAbortedException(RequestAbortedException.Reason.METHOD_LIMIT_EXCEEDED,
+                    "More than " + options.getMaxMethods() + " methods resolved");
+        }
+    }
+
+    public void addBytes(long count) throws RequestAbortedException {
+        bytes += count;
+        if (bytes > options.getMaxBytes()) {
+            throw new RequestAbortedException(RequestAbortedException.Reason.BYTE_LIMIT_EXCEEDED,
+                    "More than " + options.getMaxBytes() + " bytes written");
+        }
+    }
+}
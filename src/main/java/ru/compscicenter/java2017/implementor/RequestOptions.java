@@ -0,0 +1,76 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of a single {@link CSCImplementor} request. Options are immutable, every {@code with}
+ * method returns a copy, so one instance can be shared by all requests of a batch.
+ * The timeout is counted from the start of each request.
+ */
+public final class RequestOptions {
+
+    public static final RequestOptions DEFAULT = new RequestOptions(0, null, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long timeoutNanos;
+    private final CancellationToken cancellationToken;
+    private final int maxMethods;
+    private final long maxBytes;
+
+    private RequestOptions(long timeoutNanos, CancellationToken cancellationToken, int maxMethods, long maxBytes) {
+        this.timeoutNanos = timeoutNanos;
+        this.cancellationToken = cancellationToken;
+        this.maxMethods = maxMethods;
+        this.maxBytes = maxBytes;
+    }
+
+    public RequestOptions withTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        return new RequestOptions(unit.toNanos(timeout), cancellationToken, maxMethods, maxBytes);
+    }
+
+    public RequestOptions withCancellationToken(CancellationToken token) {
+        return new RequestOptions(timeoutNanos, token, maxMethods, maxBytes);
+    }
+
+    /**
+     * Limits the number of methods examined while collecting the methods of the class hierarchy,
+     * counting a method once for every path by which it is inherited.
+     */
+    public RequestOptions withMaxMethods(int maxMethods) {
+        if (maxMethods <= 0) {
+            throw new IllegalArgumentException("Method limit must be positive");
+        }
+        return new RequestOptions(timeoutNanos, cancellationToken, maxMethods, maxBytes);
+    }
+
+    /**
+     * Limits the size of the generated source, in bytes of its UTF-8 encoding.
+     */
+    public RequestOptions withMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Byte limit must be positive");
+        }
+        return new RequestOptions(timeoutNanos, cancellationToken, maxMethods, maxBytes);
+    }
+
+    /**
+     * Returns the timeout in nanoseconds, 0 if there is none.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    public int getMaxMethods() {
+        return maxMethods;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
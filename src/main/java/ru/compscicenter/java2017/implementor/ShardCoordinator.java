@@ -0,0 +1,274 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Implements a large batch of classes in several local {@link ShardWorker} JVMs, so that the
+ * loaded classes are spread over several heaps and Metaspaces.
+ *
+ * Classes are grouped by package, and each package is split into chunks of at most
+ * {@code classesPerWorker} classes. The chunks of a package are queued one after another, so a
+ * worker usually handles a whole package with one class loader. A worker that runs out of work
+ * steals chunks from the tail of the other queues. A worker is restarted before a chunk that would
+ * take it over {@code classesPerWorker} classes, so no JVM loads more than that many requested
+ * classes. A worker that dies, or doesn't answer within the class timeout, is killed and restarted
+ * with the rest of its chunk. The results of all workers are merged into one report.
+ */
+public final class ShardCoordinator {
+
+    public static final int DEFAULT_CLASSES_PER_WORKER = 2000;
+    public static final long DEFAULT_CLASS_TIMEOUT_MILLIS = 60_000;
+
+    private static final long WORKER_EXIT_TIMEOUT_SECONDS = 10;
+
+    private String outputDirectory;
+    private int workerCount;
+    private int classesPerWorker;
+    private long classTimeoutMillis;
+    private List<String> jvmOptions;
+
+    public ShardCoordinator(String outputDirectory, int workerCount) {
+        this(outputDirectory, workerCount, DEFAULT_CLASSES_PER_WORKER, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param jvmOptions options of the worker JVMs, for example {@code -XX:MaxMetaspaceSize=256m}
+     */
+    public ShardCoordinator(String outputDirectory, int workerCount, int classesPerWorker, List<String> jvmOptions) {
+        this(outputDirectory, workerCount, classesPerWorker, DEFAULT_CLASS_TIMEOUT_MILLIS, jvmOptions);
+    }
+
+    /**
+     * @param classTimeoutMillis time a worker has to implement one class before it is killed
+     * @param jvmOptions options of the worker JVMs, for example {@code -XX:MaxMetaspaceSize=256m}
+     */
+    public ShardCoordinator(String outputDirectory, int workerCount, int classesPerWorker, long classTimeoutMillis,
+                            List<String> jvmOptions) {
+        if (workerCount <= 0 || classesPerWorker <= 0 || classTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Worker count, classes per worker and class timeout must be positive");
+        }
+        this.outputDirectory = outputDirectory;
+        this.workerCount = workerCount;
+        this.classesPerWorker = classesPerWorker;
+        this.classTimeoutMillis = classTimeoutMillis;
+        this.jvmOptions = jvmOptions;
+    }
+
+    public ShardReport implementFromDirectory(String directoryPath, List<String> classNames)
+            throws ImplementorException {
+        return run(Paths.get(directoryPath).toAbsolutePath().toString(), classNames);
+    }
+
+    public ShardReport implementFromStandardLibrary(List<String> classNames) throws ImplementorException {
+        return run(null, classNames);
+    }
+
+    private ShardReport run(String directoryPath, List<String> classNames) throws ImplementorException {
+        List<Deque<List<String>>> queues = distribute(classNames);
+        Map<String, String> implemented = new ConcurrentHashMap<>();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        AtomicInteger workerStarts = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(queues.size());
+        try {
+            List<Future<?>> shards = new ArrayList<>();
+            for (int i = 0; i < queues.size(); i++) {
+                int index = i;
+                shards.add(executor.submit(() -> {
+                    drain(index, queues, directoryPath, implemented, failures, workerStarts);
+                    return null;
+                }));
+            }
+            for (Future<?> shard : shards) {
+                shard.get();
+            }
+        } catch (ExecutionException e) {
+            throw new ImplementorException("Worker failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImplementorException("Interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new ShardReport(implemented, failures, workerStarts.get());
+    }
+
+    /**
+     * Splits the packages into chunks and deals the packages, largest first, to the queue with the
+     * fewest classes. The chunks of one package stay next to each other in its queue.
+     */
+    private List<Deque<List<String>>> distribute(List<String> classNames) {
+        Map<String, List<String>> packages = new HashMap<>();
+        for (String className : new LinkedHashSet<>(classNames)) {
+            int lastDot = className.lastIndexOf('.');
+            String pkg = lastDot < 0 ? "" : className.substring(0, lastDot);
+            packages.computeIfAbsent(pkg, k -> new ArrayList<>()).add(className);
+        }
+
+        List<List<String>> groups = new ArrayList<>(packages.values());
+        groups.sort((a, b) -> Integer.compare(b.size(), a.size()));
+
+        List<Deque<List<String>>> queues = new ArrayList<>();
+        int queueCount = Math.min(workerCount, Math.max(1, classNames.size()));
+        int[] queuedClasses = new int[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+        }
+        for (List<String> group : groups) {
+            int target = 0;
+            for (int i = 1; i < queueCount; i++) {
+                if (queuedClasses[i] < queuedClasses[target]) {
+                    target = i;
+                }
+            }
+            for (int from = 0; from < group.size(); from += classesPerWorker) {
+                int to = Math.min(group.size(), from + classesPerWorker);
+                queues.get(target).addLast(new ArrayList<>(group.subList(from, to)));
+            }
+            queuedClasses[target] += group.size();
+        }
+        return queues;
+    }
+
+    private static List<String> nextUnit(int index, List<Deque<List<String>>> queues) {
+        List<String> unit = queues.get(index).pollFirst();
+        for (int i = 1; unit == null && i < queues.size(); i++) {
+            unit = queues.get((index + i) % queues.size()).pollLast();
+        }
+        return unit;
+    }
+
+    private void drain(int index, List<Deque<List<String>>> queues, String directoryPath,
+                       Map<String, String> implemented, Map<String, String> failures,
+                       AtomicInteger workerStarts) throws IOException, InterruptedException {
+        WorkerProcess worker = null;
+        try {
+            List<String> unit;
+            while ((unit = nextUnit(index, queues)) != null) {
+                if (worker != null && worker.handled + unit.size() > classesPerWorker) {
+                    worker.close();
+                    worker = null;
+                }
+                for (String className : unit) {
+                    if (worker == null) {
+                        worker = startWorker(directoryPath);
+                        workerStarts.incrementAndGet();
+                    }
+
+                    String reply;
+                    try {
+                        reply = worker.request(className, classTimeoutMillis);
+                    } catch (TimeoutException e) {
+                        worker.kill();
+                        failures.put(className, "Timed out after " + classTimeoutMillis + " ms");
+                        worker = null;
+                        continue;
+                    }
+                    if (reply == null) {
+                        failures.put(className, "Worker exited with code " + worker.kill());
+                        worker = null;
+                        continue;
+                    }
+
+                    int tab = reply.indexOf('\t');
+                    String status = tab < 0 ? reply : reply.substring(0, tab);
+                    String payload = tab < 0 ? "" : reply.substring(tab + 1);
+                    if (ShardWorker.OK.equals(status)) {
+                        implemented.put(className, payload);
+                    } else {
+                        failures.put(className, payload);
+                    }
+                }
+            }
+        } finally {
+            if (worker != null) {
+                worker.close();
+            }
+        }
+    }
+
+    private WorkerProcess startWorker(String directoryPath) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(outputDirectory);
+        if (directoryPath != null) {
+            command.add(directoryPath);
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return new WorkerProcess(builder.start());
+    }
+
+    private static final class WorkerProcess {
+        private final Process process;
+        private final BufferedWriter in;
+        private final BufferedReader out;
+        // Reads the replies, so that a hung worker can't block the shard thread
+        private final ExecutorService reader;
+        private int handled;
+
+        WorkerProcess(Process process) {
+            this.process = process;
+            this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            this.reader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-worker-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Returns the reply of the worker, or {@code null} if it has died.
+         *
+         * @throws TimeoutException if there is no reply within the timeout, the worker has to be killed then
+         */
+        String request(String className, long timeoutMillis) throws InterruptedException, TimeoutException {
+            handled++;
+            try {
+                in.write(className);
+                in.newLine();
+                in.flush();
+            } catch (IOException e) {
+                return null;
+            }
+
+            Future<String> reply = reader.submit(out::readLine);
+            try {
+                return reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        void close() throws InterruptedException {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // The worker has already exited
+            }
+            if (!process.waitFor(WORKER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            reader.shutdownNow();
+        }
+
+        int kill() throws InterruptedException {
+            process.destroyForcibly();
+            int exitCode = process.waitFor();
+            reader.shutdownNow();
+            return exitCode;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.util.*;
+
+/**
+ * Merged outcome of a {@link ShardCoordinator} run.
+ */
+public final class ShardReport {
+
+    private final SortedMap<String, String> implemented;
+    private final SortedMap<String, String> failures;
+    private final int workerStarts;
+
+    ShardReport(Map<String, String> implemented, Map<String, String> failures, int workerStarts) {
+        this.implemented = Collections.unmodifiableSortedMap(new TreeMap<>(implemented));
+        this.failures = Collections.unmodifiableSortedMap(new TreeMap<>(failures));
+        this.workerStarts = workerStarts;
+    }
+
+    /**
+     * Returns the full names of the generated classes by the names of the implemented classes.
+     */
+    public SortedMap<String, String> getImplemented() {
+        return implemented;
+    }
+
+    /**
+     * Returns the error messages by the names of the classes that could not be implemented.
+     */
+    public SortedMap<String, String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns how many worker processes were started, including restarts.
+     */
+    public int getWorkerStarts() {
+        return workerStarts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d implemented, %d failed, %d worker starts",
+                implemented.size(), failures.size(), workerStarts);
+    }
+}
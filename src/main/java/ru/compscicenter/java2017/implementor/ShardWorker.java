@@ -0,0 +1,64 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Worker process started by {@link ShardCoordinator}.
+ * Usage: {@code ShardWorker outputDirectory [classesDirectory]}.
+ *
+ * Reads one class name per line from stdin and answers each with {@code OK <implName>}
+ * or {@code FAIL <message>}, separated by a tab. All classes are loaded by a single class loader,
+ * so supertypes shared by a package are loaded once; the coordinator bounds the growth of
+ * Metaspace by restarting the worker.
+ */
+public final class ShardWorker {
+
+    static final String OK = "OK";
+    static final String FAIL = "FAIL";
+
+    private ShardWorker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ShardWorker outputDirectory [classesDirectory]");
+            System.exit(2);
+        }
+
+        CSCImplementor implementor = new CSCImplementor(args[0]);
+        ClassLoader classLoader = null;
+        if (args.length == 2) {
+            URL localURL = Paths.get(args[1]).toAbsolutePath().toUri().toURL();
+            classLoader = new URLClassLoader(new URL[] {localURL});
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+        String className;
+        while ((className = in.readLine()) != null) {
+            try {
+                String implName = classLoader == null
+                        ? implementor.implementFromStandardLibrary(className)
+                        : implementor.implementFromClassLoader(classLoader, className);
+                out.println(OK + "\t" + implName);
+            } catch (ImplementorException | RuntimeException | LinkageError e) {
+                out.println(FAIL + "\t" + describe(e));
+            }
+            out.flush();
+        }
+    }
+
+    private static String describe(Throwable e) {
+        StringBuilder message = new StringBuilder(e.getClass().getSimpleName());
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && !t.getMessage().isEmpty()) {
+                message.append(": ").append(t.getMessage());
+                break;
+            }
+        }
+        return message.toString().replaceAll("[\\t\\r\\n]+", " ");
+    }
+}
@@ -0,0 +1,15 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+
+/**
+ * Destination of the generated sources.
+ */
+public interface SourceOutput {
+
+    /**
+     * @param path path of the source file relative to the output root, with {@code /} as separator,
+     *             for example {@code ru/compscicenter/AnInterfaceImpl.java}
+     */
+    Writer openSource(String path) throws IOException;
+}
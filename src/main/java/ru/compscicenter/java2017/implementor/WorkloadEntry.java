@@ -0,0 +1,92 @@
+package ru.compscicenter.java2017.implementor;
+
+/**
+ * One recorded {@link Implementor} request. In a workload log every entry is a line of
+ * tab-separated fields: start time in epoch milliseconds, source ({@code DIRECTORY} or
+ * {@code STANDARD_LIBRARY}), directory ({@code -} for the standard library), class name,
+ * duration in nanoseconds, outcome ({@code OK} or {@code FAIL}) and the generated class name
+ * or the error.
+ */
+public final class WorkloadEntry {
+
+    public enum Source {
+        DIRECTORY, STANDARD_LIBRARY
+    }
+
+    private static final String NO_DIRECTORY = "-";
+    private static final String OK = "OK";
+    private static final String FAIL = "FAIL";
+
+    private final long startMillis;
+    private final Source source;
+    private final String directory;
+    private final String className;
+    private final long durationNanos;
+    private final boolean success;
+    private final String result;
+
+    public WorkloadEntry(long startMillis, Source source, String directory, String className,
+                         long durationNanos, boolean success, String result) {
+        this.startMillis = startMillis;
+        this.source = source;
+        this.directory = directory;
+        this.className = className;
+        this.durationNanos = durationNanos;
+        this.success = success;
+        this.result = result;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the directory of a {@link Source#DIRECTORY} request, {@code null} otherwise.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the name of the generated class or the description of the error.
+     */
+    public String getResult() {
+        return result;
+    }
+
+    public String toLine() {
+        return String.join("\t", Long.toString(startMillis), source.name(),
+                directory == null ? NO_DIRECTORY : escape(directory), escape(className),
+                Long.toString(durationNanos), success ? OK : FAIL, escape(result == null ? "" : result));
+    }
+
+    public static WorkloadEntry parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Malformed workload entry: " + line);
+        }
+        return new WorkloadEntry(Long.parseLong(fields[0]), Source.valueOf(fields[1]),
+                NO_DIRECTORY.equals(fields[2]) ? null : fields[2], fields[3],
+                Long.parseLong(fields[4]), OK.equals(fields[5]), fields[6]);
+    }
+
+    private static String escape(String field) {
+        return field.replaceAll("[\\t\\r\\n]+", " ");
+    }
+}
@@ -0,0 +1,36 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends {@link WorkloadEntry} lines to a workload log. Entries are flushed as soon as they are
+ * recorded, so the log survives a crashed run. Safe to use from several threads.
+ */
+public class WorkloadRecorder implements Closeable {
+
+    private final Writer writer;
+
+    public WorkloadRecorder(String logPath) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(logPath, true), StandardCharsets.UTF_8));
+    }
+
+    public WorkloadRecorder(Writer writer) {
+        this.writer = new BufferedWriter(writer);
+    }
+
+    public void record(WorkloadEntry entry) throws IOException {
+        synchronized (writer) {
+            writer.write(entry.toLine());
+            writer.write("\n");
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+}
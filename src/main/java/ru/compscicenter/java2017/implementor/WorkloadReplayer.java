@@ -0,0 +1,128 @@
+package ru.compscicenter.java2017.implementor;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a workload log written by {@link WorkloadRecorder} against an {@link Implementor}.
+ * Requests are issued with the original spacing divided by {@code speedup}
+ * (a non-positive or infinite speedup issues them back to back) on {@code concurrency} threads.
+ * In a paced replay, latency is measured from the scheduled start of a request, so time spent
+ * waiting for a free thread counts as well. Requests issued back to back are all queued at once,
+ * so their latency is measured from the moment a thread starts them.
+ *
+ * Usage: {@code WorkloadReplayer log outputDirectory [speedup [concurrency [implementorClass]]]},
+ * where the implementor class must have a constructor from the output directory.
+ */
+public final class WorkloadReplayer {
+
+    private final Implementor implementor;
+
+    public WorkloadReplayer(Implementor implementor) {
+        this.implementor = implementor;
+    }
+
+    public static List<WorkloadEntry> readLog(String logPath) throws IOException {
+        List<WorkloadEntry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(logPath), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                entries.add(WorkloadEntry.parse(line));
+            }
+        }
+        entries.sort(Comparator.comparingLong(WorkloadEntry::getStartMillis));
+        return entries;
+    }
+
+    public ReplayReport replay(List<WorkloadEntry> entries, double speedup, int concurrency)
+            throws InterruptedException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        boolean paced = speedup > 0 && !Double.isInfinite(speedup);
+        long[] latencies = new long[entries.size()];
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger outcomeChanges = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long replayStart = System.nanoTime();
+        long logStart = entries.isEmpty() ? 0 : entries.get(0).getStartMillis();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                WorkloadEntry entry = entries.get(i);
+                long scheduled = replayStart;
+                if (paced) {
+                    scheduled += (long) ((entry.getStartMillis() - logStart) * 1e6 / speedup);
+                    long delay;
+                    while ((delay = scheduled - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(delay);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+
+                int index = i;
+                long scheduledStart = scheduled;
+                executor.execute(() -> {
+                    long start = paced ? scheduledStart : System.nanoTime();
+                    boolean success = false;
+                    try {
+                        success = execute(entry);
+                    } finally {
+                        // Even an error that escapes execute() must not leave a zero latency behind
+                        latencies[index] = System.nanoTime() - start;
+                        if (!success) {
+                            failures.incrementAndGet();
+                        }
+                        if (success != entry.isSuccess()) {
+                            outcomeChanges.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new ReplayReport(latencies, failures.get(), outcomeChanges.get(), System.nanoTime() - replayStart);
+    }
+
+    private boolean execute(WorkloadEntry entry) {
+        try {
+            if (entry.getSource() == WorkloadEntry.Source.DIRECTORY) {
+                implementor.implementFromDirectory(entry.getDirectory(), entry.getClassName());
+            } else {
+                implementor.implementFromStandardLibrary(entry.getClassName());
+            }
+            return true;
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 5) {
+            System.err.println("Usage: WorkloadReplayer log outputDirectory"
+                    + " [speedup [concurrency [implementorClass]]]");
+            System.exit(2);
+        }
+        double speedup = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        String implementorClass = args.length > 4 ? args[4] : CSCImplementor.class.getName();
+
+        Constructor<?> constructor = Class.forName(implementorClass).getDeclaredConstructor(String.class);
+        constructor.setAccessible(true);
+        Implementor implementor = (Implementor) constructor.newInstance(args[1]);
+
+        ReplayReport report = new WorkloadReplayer(implementor).replay(readLog(args[0]), speedup, concurrency);
+        System.out.println(report);
+    }
+}
@@ -4,20 +4,49 @@ import org.fest.assertions.api.BooleanAssert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import ru.compscicenter.java2017.implementor.ArchiveOutput;
+import ru.compscicenter.java2017.implementor.CSCDelegateWriter;
+import ru.compscicenter.java2017.implementor.CSCImplWriter;
+import ru.compscicenter.java2017.implementor.CSCImplementor;
+import ru.compscicenter.java2017.implementor.CSCMemoizingWriter;
+import ru.compscicenter.java2017.implementor.CSCNullObjectWriter;
+import ru.compscicenter.java2017.implementor.CancellationToken;
 import ru.compscicenter.java2017.implementor.Implementor;
+import ru.compscicenter.java2017.implementor.ImplementorException;
+import ru.compscicenter.java2017.implementor.ImplementorProcessor;
+import ru.compscicenter.java2017.implementor.RecordingImplementor;
+import ru.compscicenter.java2017.implementor.ReplayReport;
+import ru.compscicenter.java2017.implementor.RequestAbortedException;
+import ru.compscicenter.java2017.implementor.RequestOptions;
+import ru.compscicenter.java2017.implementor.ShardCoordinator;
+import ru.compscicenter.java2017.implementor.ShardReport;
+import ru.compscicenter.java2017.implementor.WorkloadEntry;
+import ru.compscicenter.java2017.implementor.WorkloadRecorder;
+import ru.compscicenter.java2017.implementor.WorkloadReplayer;
 
 import javax.tools.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class ImplementorTest {
 
@@ -44,6 +73,386 @@ public class ImplementorTest {
         checkInterfaceImplementationFromStandardLibrary("java.lang.Cloneable");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void instrumentedImplementationCountsCalls() throws Exception {
+        Implementor implementor = new CSCImplementor(OUTPUT_DIRECTORY,
+                w -> new CSCImplWriter(w, CSCImplWriter.Instrumentation.COUNTERS_AND_TIMERS));
+        String implClassName = implementor.implementFromStandardLibrary("java.lang.Runnable");
+        Class<?> outputClass = compileAndLoadClass(implClassName);
+
+        Runnable runnable = (Runnable) outputClass.newInstance();
+        runnable.run();
+        runnable.run();
+
+        Method snapshot = outputClass.getMethod("instrumentationSnapshot");
+        Map<String, long[]> counters = (Map<String, long[]>) snapshot.invoke(null);
+        assertThat(counters.get("run()")[0]).isEqualTo(2L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void delegateImplementationForwardsCalls() throws Exception {
+        Implementor implementor = new CSCImplementor(OUTPUT_DIRECTORY, CSCDelegateWriter::new);
+        String implClassName = implementor.implementFromStandardLibrary("java.util.concurrent.Callable");
+        Class<?> outputClass = compileAndLoadClass(implClassName);
+        checkImplementsInterface("java.util.concurrent.Callable", outputClass);
+
+        Callable<Object> delegate = () -> "forwarded";
+        Callable<Object> callable = (Callable<Object>) outputClass.getConstructor(Callable.class).newInstance(delegate);
+        assertThat(callable.call()).isEqualTo("forwarded");
+    }
+
+    @Test
+    public void memoizingImplementationCachesResults() throws Exception {
+        Class<?> outputClass = implementMemoizingIntBinaryOperator(CSCMemoizingWriter.DEFAULT_CAPACITY);
+
+        AtomicInteger calls = new AtomicInteger();
+        IntBinaryOperator delegate = (x, y) -> {
+            calls.incrementAndGet();
+            return x + y;
+        };
+        IntBinaryOperator operator = (IntBinaryOperator) outputClass.getConstructor(IntBinaryOperator.class)
+                .newInstance(delegate);
+        for (int i = 0; i < 10; i++) {
+            assertThat(operator.applyAsInt(i % 2, 1)).isEqualTo(i % 2 + 1);
+        }
+
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(outputClass.getMethod("cacheHitCount").invoke(operator)).isEqualTo(8L);
+        assertThat(outputClass.getMethod("cacheMissCount").invoke(operator)).isEqualTo(2L);
+    }
+
+    @Test
+    public void memoizingCacheHoldsAtMostCapacityResults() throws Exception {
+        Class<?> outputClass = implementMemoizingIntBinaryOperator(1);
+
+        IntBinaryOperator delegate = (x, y) -> x + y;
+        IntBinaryOperator operator = (IntBinaryOperator) outputClass.getConstructor(IntBinaryOperator.class)
+                .newInstance(delegate);
+        operator.applyAsInt(0, 1);
+        operator.applyAsInt(1, 1);
+        operator.applyAsInt(0, 1);
+
+        assertThat(outputClass.getMethod("cacheHitCount").invoke(operator)).isEqualTo(0L);
+        assertThat(outputClass.getMethod("cacheMissCount").invoke(operator)).isEqualTo(3L);
+    }
+
+    private Class<?> implementMemoizingIntBinaryOperator(int capacity) throws Exception {
+        Implementor implementor = new CSCImplementor(OUTPUT_DIRECTORY,
+                w -> new CSCMemoizingWriter(w, Collections.singleton("applyAsInt"), capacity));
+        String implClassName = implementor.implementFromStandardLibrary("java.util.function.IntBinaryOperator");
+        return compileAndLoadClass(implClassName);
+    }
+
+    @Test
+    public void nullObjectImplementationIsSharedAndReturnsEmptyValues() throws Exception {
+        Implementor implementor = new CSCImplementor(OUTPUT_DIRECTORY, CSCNullObjectWriter::new);
+        String implClassName = implementor.implementFromStandardLibrary("java.util.Collection");
+        Class<?> outputClass = compileAndLoadClass(implClassName);
+        assertThat(Modifier.isFinal(outputClass.getModifiers())).isTrue();
+
+        Collection<?> instance = (Collection<?>) outputClass.getField("INSTANCE").get(null);
+        assertThat(instance == outputClass.getField("INSTANCE").get(null)).isTrue();
+        assertThat(instance.iterator().hasNext()).isFalse();
+        assertThat(instance.toArray()).isEmpty();
+        assertThat(instance.toArray()).isSameAs(instance.toArray());
+        // The caller picks the array type, so its own array is returned instead of the shared Object[]
+        String[] empty = new String[0];
+        assertThat(instance.toArray(empty)).isSameAs(empty);
+        String[] filled = {"a", "b"};
+        assertThat(instance.toArray(filled)).isSameAs(filled);
+        assertThat(filled[0]).isNull();
+        assertThat(filled[1]).isEqualTo("b");
+    }
+
+    @Test
+    public void processorImplementsMarkedAndListedTypes() throws Exception {
+        File sourceDirectory = new File(OUTPUT_DIRECTORY, "processor");
+        File source = new File(sourceDirectory, "marked/Service.java");
+        source.getParentFile().mkdirs();
+        Files.write(source.toPath(), Arrays.asList(
+                "package marked;",
+                "@ru.compscicenter.java2017.implementor.Implement",
+                "public abstract class Service<T> implements java.util.Comparator<T> {",
+                "    protected Service(String name) throws java.io.IOException {",
+                "    }",
+                "    public abstract String describe(int[] ids, T item) throws java.io.IOException;",
+                "}"), StandardCharsets.UTF_8);
+        File typesFile = new File(sourceDirectory, "types.txt");
+        Files.write(typesFile.toPath(), Arrays.asList("# Listed types", "java.util.concurrent.Callable"),
+                StandardCharsets.UTF_8);
+
+        compileWithProcessor(source, typesFile);
+
+        // javac compiles the generated sources in the same run
+        assertThat(new File(OUTPUT_DIRECTORY, "marked/ServiceImpl.java").exists()).isTrue();
+        Class<?> serviceImpl = loadClassFromTestDirectory("marked.ServiceImpl");
+        checkIsNotAbstract(serviceImpl);
+        checkExtendsAbstractClass("marked.Service", serviceImpl);
+        Class<?>[] exceptions = serviceImpl.getMethod("describe", int[].class, Object.class).getExceptionTypes();
+        assertThat(exceptions).hasSize(1);
+        assertThat(exceptions[0].getName()).isEqualTo("java.io.IOException");
+
+        Class<?> callableImpl = loadClassFromTestDirectory("CallableImpl");
+        checkIsNotAbstract(callableImpl);
+        checkImplementsInterface("java.util.concurrent.Callable", callableImpl);
+        assertThat(((Callable<?>) callableImpl.newInstance()).call()).isNull();
+    }
+
+    @Test
+    public void archiveOutputStoresSources() throws Exception {
+        checkArchiveOutput(true, ZipEntry.DEFLATED);
+        checkArchiveOutput(false, ZipEntry.STORED);
+    }
+
+    private void checkArchiveOutput(boolean compressed, int method) throws Exception {
+        File archive = new File(OUTPUT_DIRECTORY, "sources-" + method + ".zip");
+        try (ArchiveOutput output = new ArchiveOutput(archive.getPath(), compressed)) {
+            CSCImplementor implementor = new CSCImplementor(output, CSCImplWriter::new);
+            implementor.implementFromStandardLibrary("java.util.List");
+            implementor.implementFromStandardLibrary("java.lang.Runnable");
+            try {
+                implementor.implementFromStandardLibrary("java.util.List");
+                fail("Duplicate source is written");
+            } catch (ImplementorException e) {
+                assertThat(e.getMessage()).isEqualTo("Duplicate source ListImpl.java");
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertThat(zip.size()).isEqualTo(2);
+            ZipEntry entry = zip.getEntry("RunnableImpl.java");
+            assertThat(entry.getMethod()).isEqualTo(method);
+            Scanner scanner = new Scanner(zip.getInputStream(entry), "UTF-8").useDelimiter("\\A");
+            assertThat(scanner.next()).contains("public class RunnableImpl implements java.lang.Runnable");
+            assertThat(zip.getEntry("ListImpl.java").getMethod()).isEqualTo(method);
+        }
+    }
+
+    @Test
+    public void processorImplementsListedTypesWithoutMarkedTypes() throws Exception {
+        File sourceDirectory = new File(OUTPUT_DIRECTORY, "processor");
+        File source = new File(sourceDirectory, "plain/Plain.java");
+        source.getParentFile().mkdirs();
+        Files.write(source.toPath(), Arrays.asList("package plain;", "public class Plain {", "}"),
+                StandardCharsets.UTF_8);
+        File typesFile = new File(sourceDirectory, "types.txt");
+        Files.write(typesFile.toPath(), Arrays.asList("java.util.concurrent.Callable"), StandardCharsets.UTF_8);
+
+        compileWithProcessor(source, typesFile);
+
+        Class<?> callableImpl = loadClassFromTestDirectory("CallableImpl");
+        checkIsNotAbstract(callableImpl);
+        checkImplementsInterface("java.util.concurrent.Callable", callableImpl);
+    }
+
+    private void compileWithProcessor(File source, File typesFile) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-processor", ImplementorProcessor.class.getName(),
+                "-A" + ImplementorProcessor.TYPES_OPTION + "=" + typesFile.getAbsolutePath(),
+                "-s", OUTPUT_DIRECTORY, "-d", OUTPUT_DIRECTORY);
+        boolean success = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjects(source)).call();
+        fileManager.close();
+        assertThat(success).as(diagnostics.getDiagnostics().toString()).isTrue();
+    }
+
+    @Test
+    public void shardedRunMergesWorkerReports() throws Exception {
+        ShardCoordinator coordinator = new ShardCoordinator(OUTPUT_DIRECTORY, 2, 2,
+                Collections.<String>emptyList());
+        ShardReport report = coordinator.implementFromStandardLibrary(Arrays.asList(
+                "java.util.List", "java.util.RandomAccess", "java.util.Comparator",
+                "java.lang.Runnable", "java.lang.Readable", "java.lang.String"));
+
+        assertThat(report.getImplemented()).hasSize(5);
+        assertThat(report.getImplemented().get("java.util.List")).isEqualTo("ListImpl");
+        assertThat(report.getImplemented().get("java.lang.Runnable")).isEqualTo("RunnableImpl");
+        assertThat(report.getFailures().keySet()).containsOnly("java.lang.String");
+        // No worker handles more than two classes
+        assertThat(report.getWorkerStarts()).isGreaterThanOrEqualTo(3);
+        compileAndCheckInterfaceImplementation("java.lang.Readable", "ReadableImpl");
+    }
+
+    @Test
+    public void shardedRunKillsWorkerAfterClassTimeout() throws Exception {
+        // A worker JVM can't even start within a millisecond
+        ShardCoordinator coordinator = new ShardCoordinator(OUTPUT_DIRECTORY, 1, 10, 1,
+                Collections.<String>emptyList());
+        ShardReport report = coordinator.implementFromStandardLibrary(Arrays.asList(
+                "java.lang.Runnable", "java.lang.Readable"));
+
+        assertThat(report.getImplemented()).isEmpty();
+        assertThat(report.getFailures().get("java.lang.Runnable")).startsWith("Timed out");
+        assertThat(report.getWorkerStarts()).isEqualTo(2);
+    }
+
+    @Test
+    public void workloadEntrySurvivesRoundTrip() throws Exception {
+        WorkloadEntry entry = new WorkloadEntry(1500000000000L, WorkloadEntry.Source.DIRECTORY, "/tmp/classes",
+                "a.B", 12345L, false, "Class not found:\ta.B");
+        WorkloadEntry parsed = WorkloadEntry.parse(entry.toLine());
+        assertThat(parsed.getStartMillis()).isEqualTo(1500000000000L);
+        assertThat(parsed.getSource()).isEqualTo(WorkloadEntry.Source.DIRECTORY);
+        assertThat(parsed.getDirectory()).isEqualTo("/tmp/classes");
+        assertThat(parsed.getClassName()).isEqualTo("a.B");
+        assertThat(parsed.getDurationNanos()).isEqualTo(12345L);
+        assertThat(parsed.isSuccess()).isFalse();
+        // Tabs would break the log format
+        assertThat(parsed.getResult()).isEqualTo("Class not found: a.B");
+
+        WorkloadEntry standard = WorkloadEntry.parse(new WorkloadEntry(0, WorkloadEntry.Source.STANDARD_LIBRARY,
+                null, "java.util.List", 1, true, "ListImpl").toLine());
+        assertThat(standard.getDirectory()).isNull();
+        assertThat(standard.isSuccess()).isTrue();
+        assertThat(standard.getResult()).isEqualTo("ListImpl");
+    }
+
+    @Test
+    public void replayReportUsesNearestRankPercentiles() throws Exception {
+        long[] latencies = new long[100];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (latencies.length - i) * 1000L;
+        }
+        ReplayReport report = new ReplayReport(latencies, 3, 1, 2000000000L);
+        assertThat(report.getRequests()).isEqualTo(100);
+        assertThat(report.getFailures()).isEqualTo(3);
+        assertThat(report.getOutcomeChanges()).isEqualTo(1);
+        assertThat(report.getThroughput()).isEqualTo(50.0);
+        assertThat(report.getLatencyPercentile(0)).isEqualTo(1000L);
+        assertThat(report.getLatencyPercentile(50)).isEqualTo(50000L);
+        assertThat(report.getLatencyPercentile(99)).isEqualTo(99000L);
+        assertThat(report.getLatencyPercentile(99.5)).isEqualTo(100000L);
+        assertThat(report.getLatencyPercentile(100)).isEqualTo(100000L);
+        assertThat(new ReplayReport(new long[0], 0, 0, 0).getLatencyPercentile(50)).isEqualTo(0L);
+    }
+
+    @Test
+    public void recordingCapturesRequestsFailedWithErrors() throws Exception {
+        StringWriter log = new StringWriter();
+        Implementor implementor = new RecordingImplementor(newLinkageFailingImplementor(), new WorkloadRecorder(log));
+        try {
+            implementor.implementFromDirectory(TESTS_DIRECTORY, "a.B");
+            fail("Error is swallowed");
+        } catch (NoClassDefFoundError expected) {
+            // The error reaches the caller after it is recorded
+        }
+
+        WorkloadEntry entry = WorkloadEntry.parse(log.toString().trim());
+        assertThat(entry.getClassName()).isEqualTo("a.B");
+        assertThat(entry.isSuccess()).isFalse();
+        assertThat(entry.getResult()).contains("NoClassDefFoundError");
+    }
+
+    @Test
+    public void replayCountsLinkageErrorsAsFailures() throws Exception {
+        Implementor broken = newLinkageFailingImplementor();
+        List<WorkloadEntry> entries = Arrays.asList(
+                new WorkloadEntry(0, WorkloadEntry.Source.STANDARD_LIBRARY, null, "java.util.List", 1, true,
+                        "ListImpl"),
+                new WorkloadEntry(1, WorkloadEntry.Source.DIRECTORY, TESTS_DIRECTORY, "a.B", 1, false, "Error"));
+
+        ReplayReport report = new WorkloadReplayer(broken).replay(entries, 0, 2);
+        assertThat(report.getRequests()).isEqualTo(2);
+        assertThat(report.getFailures()).isEqualTo(2);
+        assertThat(report.getOutcomeChanges()).isEqualTo(1);
+        assertThat(report.getLatencyPercentile(0)).isGreaterThan(0L);
+    }
+
+    @Test
+    public void unpacedReplayExcludesQueueingFromLatency() throws Exception {
+        Implementor slow = new Implementor() {
+            @Override
+            public String implementFromDirectory(String directoryPath, String className) {
+                return implementFromStandardLibrary(className);
+            }
+
+            @Override
+            public String implementFromStandardLibrary(String className) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return className + "Impl";
+            }
+        };
+        List<WorkloadEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(new WorkloadEntry(i, WorkloadEntry.Source.STANDARD_LIBRARY, null, "A" + i, 1, true, ""));
+        }
+
+        ReplayReport report = new WorkloadReplayer(slow).replay(entries, 0, 1);
+        // The last request waits 180 ms in the queue, but each one runs for 20 ms
+        assertThat(report.getLatencyPercentile(100)).isLessThan(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(report.getLatencyPercentile(0)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    private static Implementor newLinkageFailingImplementor() {
+        return new Implementor() {
+            @Override
+            public String implementFromDirectory(String directoryPath, String className) {
+                throw new NoClassDefFoundError(className);
+            }
+
+            @Override
+            public String implementFromStandardLibrary(String className) {
+                throw new NoClassDefFoundError(className);
+            }
+        };
+    }
+
+    @Test
+    public void requestOverMethodLimitIsAborted() throws Exception {
+        checkRequestIsAborted(RequestOptions.DEFAULT.withMaxMethods(10),
+                RequestAbortedException.Reason.METHOD_LIMIT_EXCEEDED);
+    }
+
+    @Test
+    public void requestPastDeadlineIsAborted() throws Exception {
+        checkRequestIsAborted(RequestOptions.DEFAULT.withTimeout(1, TimeUnit.NANOSECONDS),
+                RequestAbortedException.Reason.DEADLINE_EXCEEDED);
+    }
+
+    @Test
+    public void cancelledRequestIsAborted() throws Exception {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        checkRequestIsAborted(RequestOptions.DEFAULT.withCancellationToken(token),
+                RequestAbortedException.Reason.CANCELLED);
+    }
+
+    @Test
+    public void requestOverByteLimitIsAborted() throws Exception {
+        CSCImplementor implementor = new CSCImplementor(OUTPUT_DIRECTORY);
+        implementor.implementFromStandardLibrary("java.util.List");
+        long size = new File(OUTPUT_DIRECTORY, "ListImpl.java").length();
+        assertThat(new File(OUTPUT_DIRECTORY, "ListImpl.java").delete()).isTrue();
+
+        // The limit is inclusive
+        implementor.implementFromStandardLibrary("java.util.List", RequestOptions.DEFAULT.withMaxBytes(size));
+        assertThat(new File(OUTPUT_DIRECTORY, "ListImpl.java").delete()).isTrue();
+        checkRequestIsAborted(RequestOptions.DEFAULT.withMaxBytes(size - 1),
+                RequestAbortedException.Reason.BYTE_LIMIT_EXCEEDED);
+    }
+
+    private void checkRequestIsAborted(RequestOptions options, RequestAbortedException.Reason reason)
+            throws Exception {
+        CSCImplementor implementor = new CSCImplementor(OUTPUT_DIRECTORY);
+        try {
+            implementor.implementFromStandardLibrary("java.util.List", options);
+            fail("Request is not aborted");
+        } catch (ImplementorException e) {
+            assertThat(e.getCause()).isInstanceOf(RequestAbortedException.class);
+            assertThat(((RequestAbortedException) e.getCause()).getReason()).isEqualTo(reason);
+        }
+        assertThat(new File(OUTPUT_DIRECTORY, "ListImpl.java").exists()).isFalse();
+    }
+
     private void deleteFolderContent(File folder, boolean isInner) {
         File[] files = folder.listFiles();
         if (files != null) { //some JVMs return null for empty dirs